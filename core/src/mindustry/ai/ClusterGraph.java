@@ -0,0 +1,346 @@
+package mindustry.ai;
+
+import arc.math.*;
+import arc.math.geom.*;
+import arc.struct.*;
+import arc.util.*;
+import mindustry.ai.Pathfinder.*;
+
+import java.util.*;
+
+import static mindustry.ai.ControlPathfinder.*;
+
+/**
+ * Cluster-level abstraction of the tile grid for one team and cost type, used to narrow down long searches in {@link ControlPathfinder}.
+ * The map is split into square clusters. Every passable span on a cluster border becomes a portal, and the costs between the portals of a cluster are cached.
+ * Clusters are rebuilt lazily once their version in {@link ControlPathfinder#clusterVersions} changes.
+ * Thread-safe: the lock is only held while a cluster is built, searches themselves run in parallel and can be spread across updates.
+ */
+public class ClusterGraph{
+    public static final int clusterSize = 32;
+    /** search node that represents the goal tile */
+    private static final int goalNode = -1;
+    /** search node that represents the start tile */
+    private static final int startNode = -2;
+
+    final int team;
+    final PathCost cost;
+    final int cwidth, cheight;
+
+    /** cluster -> last built state, or null if never built */
+    final Cluster[] clusters;
+
+    /** costs of the last flood, indexed by cluster-local position; only used while holding the lock */
+    final float[] local = new float[clusterSize * clusterSize];
+    final PathfindQueue localFrontier = new PathfindQueue();
+
+    public ClusterGraph(int team, PathCost cost){
+        this.team = team;
+        this.cost = cost;
+        this.cwidth = Mathf.ceil(wwidth / (float)clusterSize);
+        this.cheight = Mathf.ceil(wheight / (float)clusterSize);
+
+        clusters = new Cluster[cwidth * cheight];
+    }
+
+    /** @return the cluster index of a packed tile position. */
+    public static int cluster(int pos){
+        return (pos % wwidth) / clusterSize + (pos / wwidth) / clusterSize * Mathf.ceil(wwidth / (float)clusterSize);
+    }
+
+    /**
+     * Starts a search on the abstract graph for the clusters a path from start to goal passes through.
+     * @return the search to run with {@link CorridorSearch#update(long, long)}, or null if the abstraction is not applicable.
+     */
+    public @Nullable CorridorSearch search(int start, int goal){
+        return cluster(start) == cluster(goal) ? null : new CorridorSearch(start, goal);
+    }
+
+    /** @return a cluster, rebuilt first if any of its tiles changed since it was last built. */
+    Cluster get(int cluster){
+        //built clusters are never modified, so an up to date one can be used without the lock
+        Cluster result = clusters[cluster];
+        if(result != null && result.version == clusterVersions[cluster]) return result;
+
+        synchronized(this){
+            result = clusters[cluster];
+            int version = clusterVersions[cluster];
+            if(result == null || result.version != version){
+                clusters[cluster] = result = build(cluster, version);
+            }
+            return result;
+        }
+    }
+
+    /** @return the costs from a tile to every portal of its cluster, parallel to {@link Cluster#portals}; negative if unreachable. */
+    synchronized float[] portalCosts(Cluster data, int cluster, int from){
+        flood(cluster, from);
+
+        float[] result = new float[data.portals.length];
+        for(int i = 0; i < result.length; i++){
+            result[i] = local(data.portals[i]);
+        }
+        return result;
+    }
+
+    private Cluster build(int cluster, int version){
+        IntSeq ports = new IntSeq(), others = new IntSeq();
+
+        int x1 = (cluster % cwidth) * clusterSize, y1 = (cluster / cwidth) * clusterSize;
+        int x2 = Math.min(x1 + clusterSize, wwidth) - 1, y2 = Math.min(y1 + clusterSize, wheight) - 1;
+
+        //both sides scan the same tile pairs, so portals line up between neighboring clusters
+        if(x1 > 0) scanEdge(ports, others, x1, y1, 0, 1, y2 - y1 + 1, -1, 0);
+        if(x2 < wwidth - 1) scanEdge(ports, others, x2, y1, 0, 1, y2 - y1 + 1, 1, 0);
+        if(y1 > 0) scanEdge(ports, others, x1, y1, 1, 0, x2 - x1 + 1, 0, -1);
+        if(y2 < wheight - 1) scanEdge(ports, others, x1, y2, 1, 0, x2 - x1 + 1, 0, 1);
+
+        int n = ports.size;
+        float[] dst = new float[n * n];
+        for(int i = 0; i < n; i++){
+            flood(cluster, ports.items[i]);
+            for(int j = 0; j < n; j++){
+                dst[i * n + j] = local(ports.items[j]);
+            }
+        }
+        return new Cluster(version, ports.toArray(), others.toArray(), dst);
+    }
+
+    /** Adds a portal in the middle of every span of tile pairs along an edge that are passable on both sides. */
+    private void scanEdge(IntSeq ports, IntSeq others, int x, int y, int dx, int dy, int length, int ox, int oy){
+        int spanStart = -1;
+
+        for(int i = 0; i <= length; i++){
+            int tx = x + dx * i, ty = y + dy * i;
+            boolean open = i < length && passable(tx + ty * wwidth) && passable(tx + ox + (ty + oy) * wwidth);
+
+            if(open && spanStart == -1){
+                spanStart = i;
+            }else if(!open && spanStart != -1){
+                int mid = (spanStart + i - 1) / 2;
+                int px = x + dx * mid, py = y + dy * mid;
+                ports.add(px + py * wwidth);
+                others.add(px + ox + (py + oy) * wwidth);
+                spanStart = -1;
+            }
+        }
+    }
+
+    /** Runs Dijkstra from a tile, without leaving its cluster. Results are stored in {@link #local}. */
+    private void flood(int cluster, int from){
+        int x1 = (cluster % cwidth) * clusterSize, y1 = (cluster / cwidth) * clusterSize;
+        int x2 = Math.min(x1 + clusterSize, wwidth) - 1, y2 = Math.min(y1 + clusterSize, wheight) - 1;
+
+        Arrays.fill(local, -1f);
+        localFrontier.clear();
+
+        local[localIndex(from)] = 0f;
+        localFrontier.add(from, 0f);
+
+        while(localFrontier.size > 0){
+            float priority = localFrontier.weights[0];
+            int current = localFrontier.poll();
+            float currentCost = local[localIndex(current)];
+
+            //outdated queue entry
+            if(priority > currentCost) continue;
+
+            int cx = current % wwidth, cy = current / wwidth;
+
+            for(Point2 point : Geometry.d4){
+                int nx = cx + point.x, ny = cy + point.y;
+                if(nx < x1 || ny < y1 || nx > x2 || ny > y2) continue;
+
+                int next = nx + ny * wwidth;
+                int add = ControlPathfinder.cost(team, cost, next);
+                if(add == Pathfinder.impassable) continue;
+
+                int index = localIndex(next);
+                float newCost = currentCost + add;
+                if(local[index] < 0f || newCost < local[index]){
+                    local[index] = newCost;
+                    localFrontier.add(next, newCost);
+                }
+            }
+        }
+    }
+
+    private float local(int pos){
+        return local[localIndex(pos)];
+    }
+
+    private static int localIndex(int pos){
+        return (pos % wwidth) % clusterSize + ((pos / wwidth) % clusterSize) * clusterSize;
+    }
+
+    private boolean passable(int pos){
+        return ControlPathfinder.cost(team, cost, pos) != Pathfinder.impassable;
+    }
+
+    private static float heuristic(int a, int b){
+        int x = a % wwidth, x2 = b % wwidth, y = a / wwidth, y2 = b / wwidth;
+        return Math.abs(x - x2) + Math.abs(y - y2);
+    }
+
+    /** The portals of one cluster. Never modified once built. */
+    static class Cluster{
+        final int version;
+        /** portal tile positions inside the cluster */
+        final int[] portals;
+        /** tile positions on the other side of each portal, parallel to portals */
+        final int[] twins;
+        /** flattened portal to portal cost matrix; negative if unreachable */
+        final float[] distances;
+
+        Cluster(int version, int[] portals, int[] twins, float[] distances){
+            this.version = version;
+            this.portals = portals;
+            this.twins = twins;
+            this.distances = distances;
+        }
+    }
+
+    /** A search on the abstract graph, which can be spread across several updates. Only use it from one thread at a time. */
+    public class CorridorSearch{
+        final int start, goal;
+        final int startCluster, goalCluster;
+
+        final PathfindQueue frontier = new PathfindQueue();
+        final IntFloatMap costs = new IntFloatMap();
+        final IntIntMap cameFrom = new IntIntMap();
+        final IntFloatMap goalCosts = new IntFloatMap();
+
+        boolean started, done;
+        /** cluster index -> whether the detailed search may enter it, or null if no path was found */
+        @Nullable boolean[] result;
+
+        CorridorSearch(int start, int goal){
+            this.start = start;
+            this.goal = goal;
+            this.startCluster = cluster(start);
+            this.goalCluster = cluster(goal);
+        }
+
+        /** @return whether the search is done, or false if it ran out of time. The result is then in {@link #result()}. */
+        public boolean update(long startNs, long maxUpdateNs){
+            if(done) return true;
+
+            if(!started){
+                started = true;
+
+                //costs from the goal approximate the costs to the goal
+                Cluster goalData = get(goalCluster);
+                float[] toGoal = portalCosts(goalData, goalCluster, goal);
+                for(int i = 0; i < toGoal.length; i++){
+                    if(toGoal[i] >= 0f){
+                        goalCosts.put(goalData.portals[i], toGoal[i]);
+                    }
+                }
+
+                if(goalCosts.size == 0){
+                    done = true;
+                    return true;
+                }
+
+                Cluster startData = get(startCluster);
+                float[] fromStart = portalCosts(startData, startCluster, start);
+                for(int i = 0; i < fromStart.length; i++){
+                    int portal = startData.portals[i];
+                    float dst = fromStart[i];
+                    if(dst >= 0f && (!costs.containsKey(portal) || dst < costs.get(portal))){
+                        costs.put(portal, dst);
+                        cameFrom.put(portal, startNode);
+                        frontier.add(portal, dst + heuristic(portal, goal));
+                    }
+                }
+            }
+
+            int counter = 0;
+
+            while(frontier.size > 0){
+                float priority = frontier.weights[0];
+                int current = frontier.poll();
+
+                if(current == goalNode){
+                    finish();
+                    return true;
+                }
+
+                float currentCost = costs.get(current);
+
+                //outdated queue entry
+                if(priority > currentCost + heuristic(current, goal) + 0.001f) continue;
+
+                int c = cluster(current);
+                Cluster data = get(c);
+
+                int[] ports = data.portals, others = data.twins;
+                float[] dst = data.distances;
+                int n = ports.length;
+
+                for(int i = 0; i < n; i++){
+                    if(ports[i] != current) continue;
+
+                    //cross the border
+                    int twin = others[i];
+                    int enter = ControlPathfinder.cost(team, cost, twin);
+                    if(enter != Pathfinder.impassable){
+                        relax(current, twin, currentCost + enter);
+                    }
+
+                    //move to other portals of this cluster
+                    for(int j = 0; j < n; j++){
+                        float d = dst[i * n + j];
+                        if(j != i && d >= 0f){
+                            relax(current, ports[j], currentCost + d);
+                        }
+                    }
+                }
+
+                if(c == goalCluster && goalCosts.containsKey(current)){
+                    relax(current, goalNode, currentCost + goalCosts.get(current));
+                }
+
+                //only check every N iterations to prevent nanoTime spam (slow)
+                if((counter ++) >= 20){
+                    counter = 0;
+
+                    //exit when out of time.
+                    if(Time.timeSinceNanos(startNs) > maxUpdateNs){
+                        return false;
+                    }
+                }
+            }
+
+            done = true;
+            return true;
+        }
+
+        /** @return cluster index -> whether the detailed search may enter it, or null if no path was found. */
+        public @Nullable boolean[] result(){
+            return result;
+        }
+
+        private void finish(){
+            boolean[] clusters = new boolean[cwidth * cheight];
+            clusters[startCluster] = clusters[goalCluster] = true;
+
+            int cur = cameFrom.get(goalNode);
+            while(cur != startNode){
+                clusters[cluster(cur)] = true;
+                cur = cameFrom.get(cur);
+            }
+
+            result = clusters;
+            done = true;
+        }
+
+        private void relax(int from, int to, float newCost){
+            if(!costs.containsKey(to) || newCost < costs.get(to)){
+                costs.put(to, newCost);
+                cameFrom.put(to, from);
+                frontier.add(to, newCost + (to == goalNode ? 0f : heuristic(to, goal)));
+            }
+        }
+    }
+}
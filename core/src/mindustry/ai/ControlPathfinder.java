@@ -14,6 +14,8 @@ import mindustry.gen.*;
 import mindustry.graphics.*;
 import mindustry.world.*;
 
+import java.util.*;
+
 import static mindustry.Vars.*;
 import static mindustry.ai.Pathfinder.*;
 
@@ -23,6 +25,8 @@ public class ControlPathfinder{
     private static final int updateFPS = 60;
     private static final int updateInterval = 1000 / updateFPS;
     private static final int wallImpassableCap = 1_000_000;
+    /** amount of requests with the same destination needed before they share a reverse search */
+    private static final int minSharedRequests = 2;
 
     public static final PathCost
 
@@ -62,11 +66,18 @@ public class ControlPathfinder{
     (PathTile.nearGround(tile) || PathTile.nearSolid(tile) ? 6 : 0);
 
     public static boolean showDebug = false;
+    /** If true, long searches are restricted to the clusters found by a search on the {@link ClusterGraph} first. */
+    public static boolean useClusters = true;
 
     //static access probably faster than object access
     static int wwidth, wheight;
     //increments each tile change
     static volatile int worldUpdateId;
+    /** cluster index -> version, incremented when any tile that may affect the cluster changes */
+    static int[] clusterVersions = {};
+
+    /** cluster graphs per team and cost type; synchronize on this before access */
+    final Seq<ClusterGraph> clusterGraphs = new Seq<>();
 
     /** Current pathfinding threads, contents may be null */
     @Nullable PathfindThread[] threads;
@@ -74,6 +85,8 @@ public class ControlPathfinder{
     int lastTargetId = 1;
     /** requests per-unit */
     ObjectMap<Unit, PathRequest> requests = new ObjectMap<>();
+    /** shared reverse searches per cost type, keyed by packed destination and team. Main thread only. */
+    ObjectMap<PathCost, LongMap<SharedField>> sharedFields = new ObjectMap<>();
 
     public ControlPathfinder(){
 
@@ -81,6 +94,10 @@ public class ControlPathfinder{
             stop();
             wwidth = world.width();
             wheight = world.height();
+            clusterVersions = new int[Mathf.ceil(wwidth / (float)ClusterGraph.clusterSize) * Mathf.ceil(wheight / (float)ClusterGraph.clusterSize)];
+            synchronized(clusterGraphs){
+                clusterGraphs.clear();
+            }
 
             start();
         });
@@ -88,12 +105,14 @@ public class ControlPathfinder{
         //only update the world when a solid block is removed or placed, everything else doesn't matter
         Events.on(TilePreChangeEvent.class, e -> {
             if(e.tile.solid()){
+                updateClusters(e.tile);
                 worldUpdateId ++;
             }
         });
 
         Events.on(TileChangeEvent.class, e -> {
             if(e.tile.solid()){
+                updateClusters(e.tile);
                 worldUpdateId ++;
             }
         });
@@ -106,7 +125,10 @@ public class ControlPathfinder{
                 //skipped N update -> drop it
                 if(req.lastUpdateId <= state.updateId - 10){
                     //concurrent modification!
-                    Core.app.post(() -> requests.remove(req.unit));
+                    Core.app.post(() -> {
+                        requests.remove(req.unit);
+                        detachShared(req);
+                    });
                     req.thread.queue.post(() -> req.thread.requests.remove(req));
                 }
             }
@@ -158,6 +180,36 @@ public class ControlPathfinder{
     }
 
 
+    /** Marks every cluster that a tile and its neighbors are in as outdated. Main thread only. */
+    private void updateClusters(Tile tile){
+        int size = tile.block().size, offset = tile.block().sizeOffset;
+        int cwidth = Mathf.ceil(wwidth / (float)ClusterGraph.clusterSize);
+        int x1 = Math.max(tile.x + offset - 1, 0) / ClusterGraph.clusterSize, y1 = Math.max(tile.y + offset - 1, 0) / ClusterGraph.clusterSize;
+        int x2 = Math.min(tile.x + offset + size, wwidth - 1) / ClusterGraph.clusterSize, y2 = Math.min(tile.y + offset + size, wheight - 1) / ClusterGraph.clusterSize;
+
+        for(int cx = x1; cx <= x2; cx++){
+            for(int cy = y1; cy <= y2; cy++){
+                int index = cx + cy * cwidth;
+                if(index < clusterVersions.length){
+                    clusterVersions[index] ++;
+                }
+            }
+        }
+    }
+
+    /** @return the cluster graph for a team and cost type, creating it if necessary. */
+    ClusterGraph getClusters(int team, PathCost cost){
+        synchronized(clusterGraphs){
+            for(var graph : clusterGraphs){
+                if(graph.team == team && graph.cost == cost) return graph;
+            }
+
+            var graph = new ClusterGraph(team, cost);
+            clusterGraphs.add(graph);
+            return graph;
+        }
+    }
+
     /** @return the next target ID to use as a unique path identifier. */
     public int nextTargetId(){
         return lastTargetId ++;
@@ -215,6 +267,7 @@ public class ControlPathfinder{
             req.raycastTimer = 9999f;
 
             requests.put(unit, req);
+            attachShared(req);
 
             //add to thread so it gets processed next update
             thread.queue.post(() -> thread.requests.add(req));
@@ -231,6 +284,8 @@ public class ControlPathfinder{
 
             req.destination.set(destination);
             req.curId = pathId;
+            //move to the shared search of the new destination or team, if either changed
+            attachShared(req);
 
             //check for the unit getting stuck every N seconds
             if(req.done && (req.stuckTimer += Time.delta) >= 60f * 1.5f){
@@ -334,6 +389,55 @@ public class ControlPathfinder{
         }
         threads = null;
         requests.clear();
+        sharedFields.clear();
+    }
+
+    /** Attaches a request to the shared search towards its destination, starting that search once enough requests share it. Main thread only. */
+    private void attachShared(PathRequest req){
+        int goal = world.packArray(World.toTile(req.destination.x), World.toTile(req.destination.y));
+        var current = req.shared;
+
+        if(current != null){
+            if(current.goal == goal && current.team == req.team && current.cost == req.cost) return;
+            detachShared(req);
+        }
+
+        var fields = sharedFields.get(req.cost, LongMap::new);
+        long key = Pack.longInt(goal, req.team);
+        var field = fields.get(key);
+        if(field == null){
+            fields.put(key, field = new SharedField(goal, req.team, req.cost));
+        }
+
+        field.refs ++;
+        req.shared = field;
+
+        if(field.thread == null && field.refs >= minSharedRequests){
+            PathfindThread thread = Structs.findMin(threads, t -> t.requestSize);
+            SharedField added = field;
+            field.thread = thread;
+            thread.queue.post(() -> thread.fields.add(added));
+            field.active = true;
+        }
+    }
+
+    /** Releases the shared search of a request, removing the search once nothing uses it anymore. Main thread only. */
+    private void detachShared(PathRequest req){
+        var field = req.shared;
+        if(field == null) return;
+        req.shared = null;
+
+        if(--field.refs <= 0){
+            var fields = sharedFields.get(field.cost);
+            if(fields != null){
+                fields.remove(Pack.longInt(field.goal, field.team));
+            }
+
+            var thread = field.thread;
+            if(thread != null){
+                thread.queue.post(() -> thread.fields.remove(field));
+            }
+        }
     }
 
     private static boolean raycast(int team, PathCost type, int x1, int y1, int x2, int y2){
@@ -415,7 +519,7 @@ public class ControlPathfinder{
         return cost.getCost(team, pathfinder.tiles[tilePos]);
     }
 
-    private static int cost(int team, PathCost cost, int tilePos){
+    static int cost(int team, PathCost cost, int tilePos){
         if(state.rules.limitMapArea && !Team.get(team).isAI()){
             int x = tilePos % wwidth, y = tilePos / wwidth;
             if(x < state.rules.limitX || y < state.rules.limitY || x > state.rules.limitX + state.rules.limitWidth || y > state.rules.limitY + state.rules.limitHeight){
@@ -445,6 +549,8 @@ public class ControlPathfinder{
         TaskQueue queue = new TaskQueue();
         /** pathfinding thread access only! */
         Seq<PathRequest> requests = new Seq<>();
+        /** shared searches assigned to this thread; pathfinding thread access only! */
+        Seq<SharedField> fields = new Seq<>();
         /** volatile for access across threads */
         volatile int requestSize;
 
@@ -463,9 +569,14 @@ public class ControlPathfinder{
                         requestSize = requests.size;
 
                         //total update time no longer than maxUpdate
+                        int total = requests.size + fields.size;
+                        for(var field : fields){
+                            field.update(maxUpdate / total);
+                        }
+
                         for(var req : requests){
                             //TODO this is flawed with many paths
-                            req.update(maxUpdate / requests.size);
+                            req.update(maxUpdate / total);
                         }
                     }
 
@@ -483,6 +594,102 @@ public class ControlPathfinder{
         }
     }
 
+    /**
+     * A reverse search from one destination, shared by every request of a team and cost type towards it.
+     * Requests trace their path down the completed weights instead of searching on their own.
+     */
+    static class SharedField{
+        final int goal, team;
+        final PathCost cost;
+
+        /** amount of requests using this field; main thread only */
+        int refs;
+        /** thread this field is updated on; main thread only */
+        @Nullable PathfindThread thread;
+        /** whether requests should use this field instead of searching on their own */
+        volatile boolean active;
+
+        /** last complete weights; tile -> cost to reach the goal, or -1 if unreachable. Never modified once assigned. */
+        volatile @Nullable int[] complete;
+        /** incremented every time the complete weights change */
+        volatile int version;
+
+        @Nullable int[] weights;
+        PathfindQueue frontier = new PathfindQueue();
+        boolean searching;
+        int lastWorldUpdate;
+        long lastTime;
+
+        SharedField(int goal, int team, PathCost cost){
+            this.goal = goal;
+            this.team = team;
+            this.cost = cost;
+        }
+
+        void update(long maxUpdateNs){
+            if(!searching){
+                //re-do everything when the world updates, but keep the old weights around until then
+                if(complete != null && (worldUpdateId == lastWorldUpdate || Time.timeSinceMillis(lastTime) <= 1000 * 3)) return;
+
+                lastWorldUpdate = worldUpdateId;
+                weights = new int[wwidth * wheight];
+                Arrays.fill(weights, -1);
+                frontier = new PathfindQueue(20);
+                weights[goal] = 0;
+                frontier.add(goal, 0);
+                searching = true;
+            }
+
+            long ns = Time.nanos();
+            int counter = 0;
+
+            while(frontier.size > 0){
+                float priority = frontier.weights[0];
+                int current = frontier.poll();
+                int currentCost = weights[current];
+
+                //outdated queue entry
+                if(priority > currentCost) continue;
+
+                //units coming from a neighbor have to enter this tile
+                int enter = current == goal ? 0 : tcost(team, cost, current);
+                int cx = current % wwidth, cy = current / wwidth;
+
+                for(Point2 point : Geometry.d4){
+                    int newx = cx + point.x, newy = cy + point.y;
+                    if(newx >= wwidth || newy >= wheight || newx < 0 || newy < 0) continue;
+
+                    int next = newx + wwidth * newy;
+                    if(tcost(team, cost, next) == impassable) continue;
+
+                    int newCost = currentCost + enter;
+                    if(weights[next] == -1 || newCost < weights[next]){
+                        weights[next] = newCost;
+                        frontier.add(next, newCost);
+                    }
+                }
+
+                //only check every N iterations to prevent nanoTime spam (slow)
+                if((counter ++) >= 100){
+                    counter = 0;
+
+                    //exit when out of time.
+                    if(Time.timeSinceNanos(ns) > maxUpdateNs){
+                        return;
+                    }
+                }
+            }
+
+            complete = weights;
+            weights = null;
+            //don't keep massive queues around
+            frontier = new PathfindQueue();
+            searching = false;
+            lastTime = Time.millis();
+            version ++;
+        }
+    }
+
     static class PathRequest{
         final PathfindThread thread;
 
@@ -508,6 +715,10 @@ public class ControlPathfinder{
         volatile float raycastTimer;
 
         PathfindQueue frontier = new PathfindQueue();
+        /** cluster index -> whether the search may enter it; null if the whole map may be searched */
+        @Nullable boolean[] corridor;
+        /** search for the corridor, run before the detailed search within the same time budget */
+        @Nullable ClusterGraph.CorridorSearch corridorSearch;
         //node index -> node it came from
         IntIntMap cameFrom = new IntIntMap();
         //node index -> total cost
@@ -521,6 +732,11 @@ public class ControlPathfinder{
 
         volatile int lastId, curId;
 
+        /** shared search towards the destination; assigned on the main thread */
+        volatile @Nullable SharedField shared;
+        /** version of the shared weights the current result was traced from */
+        int tracedVersion = -1;
+
         public PathRequest(PathfindThread thread){
             this.thread = thread;
         }
@@ -533,6 +749,21 @@ public class ControlPathfinder{
         }
 
         void update(long maxUpdateNs){
+            var field = shared;
+            if(field != null && field.active){
+                int[] weights = field.complete;
+                //not done yet, keep the old path around
+                if(weights == null) return;
+
+                if(curId != lastId || forcedRecalc || field.version != tracedVersion || !done){
+                    lastId = curId;
+                    forcedRecalc = false;
+                    tracedVersion = field.version;
+                    trace(field, weights);
+                }
+                return;
+            }
+
             if(curId != lastId){
                 clear(true);
             }
@@ -551,6 +782,13 @@ public class ControlPathfinder{
             long ns = Time.nanos();
             int counter = 0;
 
+            if(corridorSearch != null){
+                if(!corridorSearch.update(ns, maxUpdateNs)) return;
+
+                corridor = corridorSearch.result();
+                corridorSearch = null;
+            }
+
             while(frontier.size > 0){
                 int current = frontier.poll();
 
@@ -567,6 +805,8 @@ public class ControlPathfinder{
 
                     if(newx >= wwidth || newy >= wheight || newx < 0 || newy < 0) continue;
 
+                    if(corridor != null && !corridor[ClusterGraph.cluster(next)]) continue;
+
                     //in fallback mode, enemy walls are passable
                     if(tcost(team, cost, next) == impassable) continue;
 
@@ -599,6 +839,14 @@ public class ControlPathfinder{
                 }
             }
 
+            //the cluster graph is only an approximation; search the whole map before giving up
+            if(!foundEnd && corridor != null){
+                corridor = null;
+                corridorSearch = null;
+                restart();
+                return;
+            }
+
             lastTime = Time.millis();
             raycastTimer = 9999f;
             result.clear();
@@ -626,6 +874,67 @@ public class ControlPathfinder{
             done = true;
         }
 
+        /** Builds the result by walking down the weights of a shared search. */
+        void trace(SharedField field, int[] weights){
+            start = world.packArray(unit.tileX(), unit.tileY());
+            goal = field.goal;
+
+            lastTime = Time.millis();
+            raycastTimer = 9999f;
+            result.clear();
+
+            pathIndex = 0;
+            rayPathIndex = -1;
+
+            int cur = start;
+            if(weights[cur] != -1){
+                for(int i = 0; i < weights.length && cur != goal; i++){
+                    int cx = cur % wwidth, cy = cur / wwidth;
+                    int next = -1, nextCost = 0;
+
+                    for(Point2 point : Geometry.d4){
+                        int newx = cx + point.x, newy = cy + point.y;
+                        if(newx >= wwidth || newy >= wheight || newx < 0 || newy < 0) continue;
+
+                        int other = newx + wwidth * newy;
+                        if(weights[other] == -1) continue;
+
+                        int otherCost = weights[other] + (other == goal ? 0 : tcost(team, cost, other));
+                        if(otherCost < weights[cur] + 1 && (next == -1 || otherCost < nextCost)){
+                            next = other;
+                            nextCost = otherCost;
+                        }
+                    }
+
+                    if(next == -1) break;
+
+                    result.add(next);
+                    cur = next;
+                }
+            }
+
+            foundEnd = cur == goal;
+
+            if(foundEnd){
+                smoothPath();
+            }else{
+                result.clear();
+            }
+
+            done = true;
+        }
+
+        void restart(){
+            frontier = new PathfindQueue(20);
+            cameFrom.clear();
+            costs.clear();
+
+            cameFrom.put(start, start);
+            costs.put(start, 0);
+
+            frontier.add(start, 0);
+        }
+
         void smoothPath(){
             int len = result.size;
             if(len <= 2) return;
@@ -647,17 +956,17 @@ public class ControlPathfinder{
         void clear(boolean resetCurrent){
             done = false;
 
-            frontier = new PathfindQueue(20);
-            cameFrom.clear();
-            costs.clear();
-
             start = world.packArray(unit.tileX(), unit.tileY());
             goal = world.packArray(World.toTile(destination.x), World.toTile(destination.y));
 
-            cameFrom.put(start, start);
-            costs.put(start, 0);
+            corridor = null;
+            corridorSearch = null;
+            //long searches are narrowed down to the clusters of the abstract path, which is searched first in update()
+            if(useClusters && heuristic(start, goal) > ClusterGraph.clusterSize * 2){
+                corridorSearch = controlPath.getClusters(team, cost).search(start, goal);
+            }
 
-            frontier.add(start, 0);
+            restart();
 
             foundEnd = false;
             lastDestination.set(destination);
@@ -2,6 +2,7 @@ package mindustry.ai;
 
 import arc.*;
 import arc.func.*;
+import arc.math.*;
 import arc.math.geom.*;
 import arc.struct.*;
 import arc.util.*;
@@ -12,11 +13,14 @@ import mindustry.core.*;
 import mindustry.game.EventType.*;
 import mindustry.game.*;
 import mindustry.gen.*;
+import mindustry.net.Administration.*;
 import mindustry.world.*;
 import mindustry.world.blocks.environment.*;
 import mindustry.world.blocks.storage.*;
 import mindustry.world.meta.*;
 
+import java.util.concurrent.*;
+
 import static mindustry.Vars.*;
 
 public class Pathfinder implements Runnable{
@@ -77,6 +81,13 @@ public class Pathfinder implements Runnable{
     TaskQueue queue = new TaskQueue();
     /** Current pathfinding thread */
     @Nullable public Thread thread;
+    /** Flow field workers, only used when more than one pathfinder thread is configured. Pathfinding thread access only. */
+    @Nullable ExecutorService workers;
+    /** Index of the field that gets submitted first, rotated every cycle so that no field is always last in line. */
+    int workerOffset;
+    /** Tiles invalidated by the current flow field repair. Pathfinding thread access only. */
+    IntSet repairRegion = new IntSet();
+    IntQueue repairQueue = new IntQueue();
     IntSeq tmpArray = new IntSeq();
 
     public Pathfinder(){
@@ -203,6 +214,16 @@ public class Pathfinder implements Runnable{
         stop();
         if(net.client() && ClientVars.spawnTime == 0) return;
 
+        int workerCount = Mathf.clamp(Config.pathfinderThreads.num(), 1, OS.cores);
+        if(workerCount > 1){
+            workers = Executors.newFixedThreadPool(workerCount, r -> {
+                Thread worker = new Thread(r, "Pathfinder-Worker");
+                worker.setPriority(Thread.MIN_PRIORITY);
+                worker.setDaemon(true);
+                return worker;
+            });
+        }
+
         thread = new Thread(this, "Pathfinder");
         thread.setPriority(Thread.MIN_PRIORITY);
         thread.setDaemon(true);
@@ -215,18 +236,25 @@ public class Pathfinder implements Runnable{
             thread.interrupt();
             thread = null;
         }
+        if(workers != null){
+            workers.shutdownNow();
+            workers = null;
+        }
         queue.clear();
     }
 
     /** Update a tile in the internal pathfinding grid.
-     * Causes a complete pathfinding recalculation. Main thread only. */
+     * Flow fields are repaired around the tile; a complete recalculation only happens when their targets changed. Main thread only. */
     public void updateTile(Tile tile){
         if(net.client() && ClientVars.spawnTime == 0) return;
 
+        IntSeq changed = new IntSeq();
+
         tile.getLinkedTiles(t -> {
             int pos = t.array();
             if(pos < tiles.length){
                 tiles[pos] = packTile(t);
+                changed.add(pos);
             }
         });
 
@@ -234,15 +262,26 @@ public class Pathfinder implements Runnable{
         for(Flowfield path : mainList){
             if(path != null){
                 synchronized(path.targets){
+                    tmpArray.clear();
+                    tmpArray.addAll(path.targets);
                     path.updateTargetPositions();
+
+                    if(!tmpArray.equals(path.targets)){
+                        path.targetsChanged = true;
+                    }
                 }
             }
         }
 
-        //mark every flow field as dirty, so it updates when it's done
         queue.post(() -> {
             for(Flowfield data : threadList){
-                data.dirty = true;
+                //repairs are only valid on top of a finished search; otherwise, mark it as dirty, so it updates when it's done
+                if(data.targetsChanged || data.dirty || data.frontier.size > 0 || !data.hasComplete){
+                    data.targetsChanged = false;
+                    data.dirty = true;
+                }else{
+                    repairField(data, changed);
+                }
             }
         });
     }
@@ -250,6 +289,10 @@ public class Pathfinder implements Runnable{
     /** Thread implementation. */
     @Override
     public void run(){
+        //stop() may clear the field while this thread is still winding down
+        ExecutorService pool = workers;
+        Seq<Future<?>> futures = new Seq<>();
+
         while(true){
             if(net.client() && ClientVars.spawnTime == 0) return;
             try{
@@ -266,7 +309,17 @@ public class Pathfinder implements Runnable{
                             data.dirty = false;
                         }
 
-                        updateFrontier(data, maxUpdate);
+                        if(pool == null){
+                            updateFrontier(data, maxUpdate);
+                        }
+                    }
+
+                    if(pool != null){
+                        try{
+                            updateWorkers(pool, futures);
+                        }catch(InterruptedException e){
+                            return;
+                        }
                     }
                 }
 
@@ -282,6 +335,40 @@ public class Pathfinder implements Runnable{
         }
     }
 
+    /**
+     * Spreads the frontier updates of all flow fields across the worker pool, then waits for all of them to finish.
+     * Every field gets its own maxUpdate budget, and is only ever touched by one worker at a time.
+     * The tile array is only read here; it is written by the main thread, just like in single-threaded mode.
+     * Pathfinding thread only.
+     */
+    private void updateWorkers(ExecutorService pool, Seq<Future<?>> futures) throws InterruptedException{
+        int size = threadList.size;
+        if(size == 0) return;
+
+        workerOffset = (workerOffset + 1) % size;
+
+        for(int i = 0; i < size; i++){
+            Flowfield data = threadList.get((i + workerOffset) % size);
+
+            //nothing to do, don't bother submitting it
+            if(data.frontier.size == 0) continue;
+
+            futures.add(pool.submit(() -> updateFrontier(data, maxUpdate)));
+        }
+
+        try{
+            for(var future : futures){
+                try{
+                    future.get();
+                }catch(ExecutionException e){
+                    Log.err(e.getCause());
+                }
+            }
+        }finally{
+            futures.clear();
+        }
+    }
+
     public Flowfield getField(Team team, int costType, int fieldType){
         if(cache[team.id][costType][fieldType] == null){
             Flowfield field = fieldTypes.get(fieldType).get();
@@ -368,6 +455,82 @@ public class Pathfinder implements Runnable{
         }
     }
 
+    /**
+     * Invalidates the weights of the changed tiles, their neighbors (whose costs may have changed as well), and every tile that got its weight through them.
+     * The valid tiles bordering that region are then added to the frontier, so only the invalidated region is searched again.
+     * Pathfinding thread only.
+     */
+    private void repairField(Flowfield path, IntSeq changed){
+        IntSet region = repairRegion;
+        IntQueue open = repairQueue;
+        int[] weights = path.weights;
+        region.clear();
+        open.clear();
+
+        for(int i = 0; i < changed.size; i++){
+            int pos = changed.items[i];
+            int x = pos % wwidth, y = pos / wwidth;
+
+            addRepair(path, pos);
+            for(Point2 point : Geometry.d4){
+                int dx = x + point.x, dy = y + point.y;
+                if(dx < 0 || dy < 0 || dx >= wwidth || dy >= wheight) continue;
+
+                addRepair(path, dx + dy * wwidth);
+            }
+        }
+
+        //weights are not modified yet, so the old ones can be used to find dependent tiles
+        while(open.size > 0){
+            int tile = open.removeLast();
+            int cost = weights[tile];
+            if(cost == impassable) continue;
+
+            for(Point2 point : Geometry.d4){
+                int dx = (tile % wwidth) + point.x, dy = (tile / wwidth) + point.y;
+                if(dx < 0 || dy < 0 || dx >= wwidth || dy >= wheight) continue;
+
+                int newPos = tile + point.x + point.y * wwidth;
+                int otherCost = path.cost.getCost(path.team.id, tiles[newPos]);
+
+                //this tile may have gotten its weight from the invalidated one
+                if(otherCost != impassable && weights[newPos] == cost + otherCost){
+                    addRepair(path, newPos);
+                }
+            }
+        }
+
+        IntSet.IntSetIterator it = region.iterator();
+        while(it.hasNext){
+            int tile = it.next();
+            weights[tile] = impassable;
+            //older than any search, so the next visit always overwrites it
+            path.searches[tile] = 0;
+        }
+
+        it = region.iterator();
+        while(it.hasNext){
+            int tile = it.next();
+
+            for(Point2 point : Geometry.d4){
+                int dx = (tile % wwidth) + point.x, dy = (tile / wwidth) + point.y;
+                if(dx < 0 || dy < 0 || dx >= wwidth || dy >= wheight) continue;
+
+                int newPos = tile + point.x + point.y * wwidth;
+                if(weights[newPos] != impassable && !region.contains(newPos)){
+                    path.frontier.addFirst(newPos);
+                }
+            }
+        }
+    }
+
+    private void addRepair(Flowfield path, int pos){
+        //targets are never invalidated
+        if(path.weights[pos] != 0 && repairRegion.add(pos)){
+            repairQueue.addFirst(pos);
+        }
+    }
+
     private void preloadPath(Flowfield path){
         path.updateTargetPositions();
         registerPath(path);
@@ -498,6 +661,8 @@ public class Pathfinder implements Runnable{
         protected volatile boolean hasComplete;
         /** If true, this flow field needs updating. This flag is only set to false once the flow field finishes and the weights are copied over. */
         protected boolean dirty = false;
+        /** If true, the targets changed since the last tile update, so the flow field can't be repaired and needs a complete update. */
+        protected volatile boolean targetsChanged = false;
 
         /** costs of getting to a specific tile */
         public int[] weights;
@@ -261,6 +261,9 @@ fun setupCommands() {
                 BlockCommunicationSystem.findMessage()?.run { Core.bundle.format("client.networking.messageblock", tileX(), tileY()) } ?:
                 Core.bundle.get("client.networking.buildplan")
         )
+        for ((type, stats) in Main.communicationClient.stats()) {
+            player.sendMessage(Core.bundle.format("client.networking.stats", type, stats.transmissions, stats.packets, UI.formatAmount(stats.bytes), stats.averageLatency))
+        }
     }
 
     register("fixpower [c]", Core.bundle.get("client.command.fixpower.description")) { args, player ->
@@ -710,6 +713,48 @@ fun setupCommands() {
     
     // Special commands
 
+    register("history <player> [minutes]", Core.bundle.get("client.command.history.description")) { args, player ->
+        val id = args[0].toIntOrNull() ?: Groups.player.minByOrNull { p -> biasedLevenshtein(p.name, args[0]) }?.id ?: return@register
+        val minutes = args.getOrNull(1)?.toLongOrNull() ?: 10
+        val logs = Seq<TileLog>()
+        TileHistoryIndex.byPlayer(id, Time.millis() - minutes * 60_000) { logs.add(it) }
+
+        if (logs.isEmpty) {
+            player.sendMessage(Core.bundle.format("client.command.history.none", id, minutes))
+            return@register
+        }
+        player.sendMessage(buildString {
+            append(Core.bundle.format("client.command.history.header", logs.size, id, minutes))
+            for (i in (logs.size - 10).coerceAtLeast(0) until logs.size) { // Only the most recent ones, the rest would flood the chat
+                val log = logs[i]
+                append("\n").append(log.toShortString()).append(" (").append(Point2.x(log.origin)).append(", ").append(Point2.y(log.origin)).append(")")
+            }
+        })
+    }
+
+    register("whodid [minutes] [radius]", Core.bundle.get("client.command.whodid.description")) { args, player ->
+        val minutes = args.getOrNull(0)?.toLongOrNull() ?: 10
+        val radius = args.getOrNull(1)?.toIntOrNull() ?: 10
+        val counts = HashMap<Int, Int>()
+        val names = HashMap<Int, String>()
+        TileHistoryIndex.inArea(player.tileX() - radius, player.tileY() - radius, player.tileX() + radius, player.tileY() + radius, Time.millis() - minutes * 60_000) {
+            counts.merge(it.cause.playerID, 1, Int::plus)
+            names[it.cause.playerID] = it.cause.shortName
+        }
+
+        if (counts.isEmpty()) {
+            player.sendMessage(Core.bundle.format("client.command.whodid.none", minutes))
+            return@register
+        }
+        player.sendMessage(buildString {
+            append(Core.bundle.format("client.command.whodid.header", radius, minutes))
+            for (entry in counts.entries.sortedByDescending { it.value }) {
+                val name = if (entry.key == -1) Core.bundle.get("client.command.whodid.other") else "${names[entry.key]}[white] (${entry.key})"
+                append("\n").append(name).append(": ").append(entry.value)
+            }
+        })
+    }
+
     register("seer", "Clientside moderation") { _, player -> // FINISHME
         if (!Core.settings.getBool("seer-enabled")) {
             player.sendMessage(Core.bundle.get("client.command.seer.disabled"))
@@ -28,7 +28,8 @@ import kotlin.random.Random
 
 object Main : ApplicationListener {
     private lateinit var communicationSystem: SwitchableCommunicationSystem
-    private lateinit var communicationClient: Packets.CommunicationClient
+    lateinit var communicationClient: Packets.CommunicationClient
+        private set
     private var dispatchedBuildPlans = mutableListOf<BuildPlan>()
     private val buildPlanInterval = Interval()
     val tlsPeers = CopyOnWriteArrayList<Pair<Packets.CommunicationClient, TlsCommunicationSystem>>()
@@ -49,6 +50,7 @@ object Main : ApplicationListener {
             signatures = Signatures(keyStorage, ntp.clock)
 
             TileRecords.initialize()
+            TileJournal.initialize()
         } else {
             keyStorage = KeyStorage(Files.createTempDirectory("keystorage").toFile())
             communicationSystem = SwitchableCommunicationSystem(DummyCommunicationSystem(mutableListOf()))
@@ -75,6 +77,8 @@ object Main : ApplicationListener {
         Events.on(EventType.ServerJoinEvent::class.java) {
             setPluginNetworking(false)
             CommandCompletion.reset(true)
+            communicationClient.resetPeers()
+            communicationClient.announce()
             if (!Server.current.ghost) Call.serverPacketReliable("fooCheck", "") // Request version info FINISHME: The server should just send this info on join
         }
 
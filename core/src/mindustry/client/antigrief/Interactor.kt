@@ -54,3 +54,18 @@ fun Unit?.toInteractor(): Interactor {
     this ?: return NullUnitInteractor
     return UnitInteractor(this)
 }
+
+/** Shares one instance between all logs with an equal cause, as each [UnitInteractor] otherwise keeps its own copy of the same names. */
+object Interactors {
+    private val interned = HashMap<String, Interactor>()
+
+    fun intern(interactor: Interactor): Interactor {
+        if (interactor === NullUnitInteractor) return interactor
+        return interned.getOrPut("${interactor.playerID} ${interactor.name}") { interactor }
+    }
+
+    fun clear() = interned.clear()
+}
+
+/** A cause read back from the [TileJournal], which no longer has a unit to describe. */
+class StoredInteractor(override val name: String, override val shortName: String, override val playerID: Int) : Interactor
@@ -11,23 +11,35 @@ import mindustry.world.*
 import java.time.Instant
 import kotlin.math.*
 
+/** Tiles per task when tile histories are replayed on [mainExecutor] */
+private const val REPLAY_CHUNK_SIZE = 1024
+
+/** Evaluates [state] for every tile, split into chunks that run in parallel on [mainExecutor]. */
+private fun replayTiles(tiles: List<Tile>, state: (TileRecord) -> TileState?): Array<TileState?> {
+    val states = arrayOfNulls<TileState>(tiles.size)
+    val tasks = (tiles.indices step REPLAY_CHUNK_SIZE).map { start ->
+        mainExecutor.submit(Runnable {
+            for (i in start until min(start + REPLAY_CHUNK_SIZE, tiles.size)) {
+                states[i] = state(TileRecords[tiles[i]] ?: continue)
+            }
+        })
+    }
+    tasks.forEach { it.get() }
+    return states
+}
+
 fun rollbackTiles(tiles: Iterable<Tile>, timeInstant: Instant){
     val time =  if (timeInstant > TileRecords.joinTime) timeInstant else TileRecords.joinTime
     clientThread.post {
         val plans = Seq<BuildPlan>()
         val toBreak = IntSet()
+        val timeMillis = time.toEpochMilli()
 
-        tiles.forEach {
-            val record = TileRecords[it] ?: return@forEach
-            // Get the sequence associated with the rollback time
-            val seq: TileLogSequence = record.lastSequence(time) ?: return@forEach
-            val state = seq.snapshot.clone()
-            // Step through logs until time is reached
-            for (diff in seq.iterator()) {
-                if (diff.time > time) break
-                diff.apply(state)
-            }
-            state.restoreState(it, plans, toBreak)
+        val tileList = tiles.toList()
+        // Find the sequence containing the rollback time and step through its logs until the time is reached
+        val states = replayTiles(tileList) { it.stateAt(timeMillis) }
+        for (i in tileList.indices) {
+            states[i]?.restoreState(tileList[i], plans, toBreak)
         }
         toBreak.clear()
         if (plans.size == 0) {
@@ -52,29 +64,11 @@ fun rollbackTiles(tiles: Iterable<Tile>, timeInstant: Instant){
 
 fun rebuildBroken(tiles: Iterable<Tile>, timeStart: Instant, timeEnd: Instant, range: Float){
     clientThread.post {
+        val startMillis = timeStart.toEpochMilli()
+        val endMillis = timeEnd.toEpochMilli()
         val states: Seq<TileState> = Seq()
-        tiles.forEach {
-            val sequences = TileRecords[it]?.sequences ?: return@forEach
-            var last: TileState? = null
-            var hasBeenOverwritten = false // Whether there is another block that is placed offset some time in the future
-
-            seq@ for (seq in sequences.asReversed()) { // Rebuilds are likely used on recent states, so start from the last logs
-                if (seq.snapshot.time > timeEnd) continue // Skip to the first sequence that overlaps with time interval
-                val state = seq.snapshot.clone()
-                last = if (state.isRootTile && seq.snapshot.time > timeStart) state.clone() else null
-                // Step through logs until time is reached
-                for (diff in seq.iterator()) {
-                    if (diff.time > timeEnd) break // Abort if we have reached time end
-                    if (diff.time >= timeStart && diff is TileBreakLog && state.block !== Blocks.air) {
-                        if (state.isRootTile) last = state.clone()
-                        hasBeenOverwritten = true
-                    }
-                    diff.apply(state)
-                }
-                if ((last != null && last.isRootTile) || hasBeenOverwritten) break@seq // Break if we can restore that, or no earlier logs need to be used
-            }
-            if (last == null || !last.isRootTile) return@forEach
-            states.add(last)
+        for (state in replayTiles(tiles.toList()) { brokenState(it, startMillis, endMillis) }) {
+            if (state != null) states.add(state)
         }
 
         if (states.size == 0) {
@@ -117,6 +111,31 @@ fun rebuildBroken(tiles: Iterable<Tile>, timeStart: Instant, timeEnd: Instant, r
     }
 }
 
+/** @return the last state of a tile with a root block in it that was broken between [startMillis] and [endMillis] */
+private fun brokenState(record: TileRecord, startMillis: Long, endMillis: Long): TileState? {
+    val sequences = record.sequences ?: return null
+    var last: TileState? = null
+    var hasBeenOverwritten = false // Whether there is another block that is placed offset some time in the future
+
+    // Rebuilds are likely used on recent states, so start from the last sequence that overlaps with the time interval
+    for (i in record.lastSequenceIndex(endMillis) downTo 0) {
+        val seq = sequences[i]
+        val state = seq.snapshot.clone()
+        last = if (state.isRootTile && seq.snapshotMillis > startMillis) state.clone() else null
+        // Step through logs until time end is reached
+        for (j in 0 until seq.countUntil(endMillis)) {
+            val diff = seq.logs[j]
+            if (diff.timeMillis >= startMillis && diff is TileBreakLog && state.block !== Blocks.air) {
+                if (state.isRootTile) last = state.clone()
+                hasBeenOverwritten = true
+            }
+            diff.apply(state)
+        }
+        if ((last != null && last.isRootTile) || hasBeenOverwritten) break // Break if we can restore that, or no earlier logs need to be used
+    }
+    return if (last != null && last.isRootTile) last else null
+}
+
 fun undoPlayer(tiles: Iterable<Tile>, id: Int){
     clientThread.post {
         var playerName: String? = null
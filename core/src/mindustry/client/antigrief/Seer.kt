@@ -46,13 +46,20 @@ object Seer { // FINISHME: Fully implement and test this
     private fun warnIfNeeded(data: PlayerData, player: Player) { // FINISHME: Bundles
         if (!Core.settings.getBool("seer-warnings")) return
         if (data.score >= Core.settings.getInt("seer-warnthreshold")) {
-            Vars.player.sendMessage("${player.coloredName()} [accent]exceeded warn threshold! ${data.score}")
+            Vars.player.sendMessage("${player.coloredName()} [accent]exceeded warn threshold! ${data.score} (${recentActions(player.id, 5 * 60_000L)} tile actions in the last 5 minutes)")
         }
         if (Core.settings.getBool("seer-autokick") && data.score >= Core.settings.getInt("seer-autokickthreshold")) {
             Call.sendChatMessage("/votekick #${player.id}")
         }
     }
 
+    /** @return how many tile logs a player caused in the last [millis] */
+    fun recentActions(id: Int, millis: Long): Int {
+        var count = 0
+        TileHistoryIndex.byPlayer(id, Time.millis() - millis) { count++ }
+        return count
+    }
+
     fun thoriumReactor(player: Player?, distance: Float) {
         if (!Core.settings.getBool("seer-enabled")) return
         val data = player?.getData() ?: return
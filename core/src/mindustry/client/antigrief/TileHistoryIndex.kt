@@ -0,0 +1,83 @@
+package mindustry.client.antigrief
+
+import arc.struct.*
+
+/**
+ * Secondary indices over the logs in [TileRecords], so "what did this player do" and "what happened here" don't need to walk every record.
+ * Each log is stored once per player and once per chunk it touches, in the order they were made, so time ranges are found by binary search.
+ */
+object TileHistoryIndex {
+    @PublishedApi internal const val CHUNK_BITS = 4
+    private const val CHUNK_SIZE = 1 shl CHUNK_BITS
+
+    /** Player id to their logs, with -1 holding the logs that were not caused by a player */
+    private val byPlayer = IntMap<Seq<TileLog>>()
+    private var chunks: Array<Seq<TileLog>?> = arrayOf()
+    private var chunksWide = 0
+
+    fun reset(width: Int, height: Int) {
+        byPlayer.clear()
+        chunksWide = (width + CHUNK_SIZE - 1) shr CHUNK_BITS
+        chunks = arrayOfNulls(chunksWide * ((height + CHUNK_SIZE - 1) shr CHUNK_BITS))
+    }
+
+    /** Indexes a log that was added to the record of the tile at [x], [y]. Logs covering several tiles are only indexed once per player and chunk. */
+    internal fun add(x: Int, y: Int, log: TileLog) {
+        val logs = byPlayer.get(log.cause.playerID) ?: Seq<TileLog>().also { byPlayer.put(log.cause.playerID, it) }
+        if (logs.isEmpty || logs.peek() !== log) logs.add(log)
+
+        val index = (x shr CHUNK_BITS) + (y shr CHUNK_BITS) * chunksWide
+        if (index !in chunks.indices) return
+        val chunk = chunks[index] ?: Seq<TileLog>().also { chunks[index] = it }
+        if (chunk.isEmpty || chunk.peek() !== log) chunk.add(log)
+    }
+
+    /** Calls [cons] with every log caused by a player between [since] and [until] in epoch millis, oldest first. */
+    inline fun byPlayer(id: Int, since: Long, until: Long = Long.MAX_VALUE, cons: (TileLog) -> Unit) {
+        val logs = playerLogs(id) ?: return
+        for (i in firstAfter(logs, since) until logs.size) {
+            val log = logs[i]
+            if (log.timeMillis > until) break
+            cons(log)
+        }
+    }
+
+    /** Calls [cons] with every log touching the rectangle from [x1], [y1] to [x2], [y2] inclusive between [since] and [until]. Logs are ordered by chunk, then by time. */
+    inline fun inArea(x1: Int, y1: Int, x2: Int, y2: Int, since: Long, until: Long = Long.MAX_VALUE, cons: (TileLog) -> Unit) {
+        val seen = ObjectSet<TileLog>()
+        for (cy in (y1 shr CHUNK_BITS)..(y2 shr CHUNK_BITS)) {
+            for (cx in (x1 shr CHUNK_BITS)..(x2 shr CHUNK_BITS)) {
+                val logs = chunkLogs(cx, cy) ?: continue
+                for (i in firstAfter(logs, since) until logs.size) {
+                    val log = logs[i]
+                    if (log.timeMillis > until) break
+                    if (!log.overlaps(x1, y1, x2, y2) || !seen.add(log)) continue
+                    cons(log)
+                }
+            }
+        }
+    }
+
+    @PublishedApi internal fun playerLogs(id: Int): Seq<TileLog>? = byPlayer.get(id)
+
+    @PublishedApi internal fun chunkLogs(cx: Int, cy: Int): Seq<TileLog>? {
+        if (cx < 0 || cy < 0 || cx >= chunksWide) return null
+        return chunks.getOrNull(cx + cy * chunksWide)
+    }
+
+    /** @return the index of the first log made at or after [time] */
+    @PublishedApi internal fun firstAfter(logs: Seq<TileLog>, time: Long): Int {
+        var low = 0
+        var high = logs.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (logs[mid].timeMillis < time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    @PublishedApi internal fun TileLog.overlaps(x1: Int, y1: Int, x2: Int, y2: Int): Boolean {
+        val area = position // y is the top row of the area
+        return area.x <= x2 && area.x + area.width - 1 >= x1 && area.y >= y1 && area.y - area.height + 1 <= y2
+    }
+}
@@ -0,0 +1,407 @@
+package mindustry.client.antigrief
+
+import arc.*
+import arc.files.*
+import arc.math.geom.*
+import arc.struct.*
+import arc.util.*
+import arc.util.io.*
+import mindustry.Vars.*
+import mindustry.game.*
+import mindustry.io.*
+import java.io.*
+import java.time.*
+import java.util.concurrent.*
+import java.util.zip.*
+
+/**
+ * Append-only on-disk copy of [TileRecords], so tile history survives client restarts and is kept as evidence after a map is reloaded.
+ * Logs are serialized on the main thread about once a second, then compressed as one block and appended to a segment file on a background thread.
+ * When rejoining a server whose map is still the one the latest journal was written for, the journal is read back into [TileRecords].
+ */
+object TileJournal {
+    private const val MAGIC = 0x544a524e
+    private const val VERSION = 1
+    private const val SEGMENT_SIZE = 4 * 1024 * 1024
+    private const val MAX_AGE = 7L * 24 * 60 * 60 * 1000
+    /** Logs younger than this are not written yet, as their rotation and configuration are filled in a few frames later */
+    private const val SETTLE_TIME = 1000L
+
+    private const val RECORD_INTERACTOR = 0
+    private const val RECORD_SNAPSHOT = 1
+    private const val RECORD_LOG = 2
+    private const val RECORD_TILE = 3
+
+    private const val LOG_CONFIGURE = 0
+    private const val LOG_PLACED = 1
+    private const val LOG_PAYLOAD_DROP = 2
+    private const val LOG_BREAK = 3
+    private const val LOG_PAYLOAD_PICKUP = 4
+    private const val LOG_DESTROYED = 5
+    private const val LOG_UNIT_DESTROYED = 6
+    private const val LOG_ROTATE = 7
+
+    private val root get() = Core.settings.dataDirectory.child("tilelogs")
+    private val writer = Executors.newSingleThreadExecutor { r -> Thread(r, "Tile Journal").apply { isDaemon = true } }
+
+    private var directory: Fi? = null
+    /** Only used on the writer thread */
+    private var segment = 0
+
+    /** Each entry is a [TileState] snapshot or a [TileLog] added to the tile in [pendingPositions] */
+    private val pending = Seq<Any>()
+    private val pendingPositions = IntSeq()
+    private val interactorIds = ObjectIntMap<Interactor>()
+    private var lastLog: TileLog? = null
+
+    private val buffer = ReusableByteOutStream()
+    private val out = DataOutputStream(buffer)
+    private val configBuffer = ReusableByteOutStream()
+    private val configWrites = Writes(DataOutputStream(configBuffer))
+    private val flushTimer = Interval()
+
+    fun initialize() {
+        Events.run(EventType.Trigger.update) {
+            if (directory != null && flushTimer.get(60f)) flush(false)
+        }
+        Events.on(EventType.ResetEvent::class.java) { flush(true) }
+    }
+
+    /** Closes the current journal and starts the one for the current server and map, loading its history if it is still running. */
+    fun open() {
+        close()
+        if (!net.client()) return
+
+        val host = ui.join.lastHost
+        val key = sanitize(if (host == null) "unknown" else "${host.address}_${host.port}") + "/" + sanitize(state.map.name())
+        val parent = root.child(key)
+        prune()
+
+        val latest = parent.list().filter { it.isDirectory }.maxByOrNull { it.name().toLongOrNull() ?: 0L }
+        if (latest != null) {
+            try {
+                if (load(latest)) {
+                    directory = latest
+                    // The last segment may end in a block cut off by a crash, so never append to it
+                    val next = (segments(latest).lastOrNull()?.nameWithoutExtension()?.substringAfter('-')?.toIntOrNull() ?: -1) + 1
+                    writer.execute { segment = next }
+                    return
+                }
+            } catch (e: Exception) {
+                Log.err("Failed to load tile journal $latest", e)
+            }
+            // Rolling back to a partly loaded history would be wrong, so start over
+            TileRecords.clear()
+            interactorIds.clear()
+        }
+
+        val dir = parent.child(Time.millis().toString())
+        dir.mkdirs()
+        DataOutputStream(dir.child("journal.bin").write(false, 64)).use {
+            it.writeInt(MAGIC)
+            it.writeInt(VERSION)
+            it.writeInt(world.width())
+            it.writeInt(world.height())
+            it.writeLong(TileRecords.joinTime.toEpochMilli())
+        }
+        directory = dir
+        writer.execute { segment = 0 }
+    }
+
+    fun close() {
+        flush(true)
+        directory = null
+        interactorIds.clear()
+        lastLog = null
+    }
+
+    internal fun snapshot(state: TileState) {
+        if (directory == null) return
+        pending.add(state)
+        pendingPositions.add(Point2.pack(state.x, state.y))
+    }
+
+    internal fun log(x: Int, y: Int, log: TileLog) {
+        if (directory == null) return
+        pending.add(log)
+        pendingPositions.add(Point2.pack(x, y))
+    }
+
+    /** Serializes pending entries and hands them to the writer thread. Unless [all] is set, entries that may still change are kept. */
+    private fun flush(all: Boolean) {
+        val dir = directory ?: return
+        val cutoff = if (all) Long.MAX_VALUE else Time.millis() - SETTLE_TIME
+
+        var count = 0
+        buffer.reset()
+        try {
+            while (count < pending.size) {
+                val entry = pending[count]
+                if (entry is TileLog && entry.timeMillis > cutoff) break
+                when (entry) {
+                    is TileState -> writeSnapshot(entry)
+                    is TileLog -> writeLog(entry, pendingPositions[count])
+                }
+                count++
+            }
+            out.flush()
+        } catch (e: IOException) {
+            Log.err("Failed to serialize tile logs", e)
+        }
+
+        if (count == 0) return
+        pending.removeRange(0, count - 1)
+        pendingPositions.removeRange(0, count - 1)
+        if (buffer.size() == 0) return
+
+        val data = buffer.toByteArray()
+        val tick = state.tick.toLong()
+        writer.execute {
+            try {
+                append(dir, data, tick)
+            } catch (e: IOException) {
+                Log.err("Failed to write tile journal", e)
+            }
+        }
+    }
+
+    private fun writeSnapshot(state: TileState) {
+        out.writeByte(RECORD_SNAPSHOT)
+        out.writeInt(Point2.pack(state.x, state.y))
+        out.writeShort(state.block.id.toInt())
+        out.writeInt(state.rotation)
+        out.writeByte(state.team.id)
+        out.writeBoolean(state.isRootTile)
+        out.writeLong(state.time.toEpochMilli())
+        writeConfig(state.configuration)
+    }
+
+    private fun writeLog(log: TileLog, pos: Int) {
+        if (log !== lastLog) {
+            val type = when (log) {
+                is ConfigureTileLog -> LOG_CONFIGURE
+                is BlockPayloadDropLog -> LOG_PAYLOAD_DROP
+                is TilePlacedLog -> LOG_PLACED
+                is BlockPayloadPickupLog -> LOG_PAYLOAD_PICKUP
+                is TileDestroyedLog -> LOG_DESTROYED
+                is TileBreakLog -> LOG_BREAK
+                is UnitDestroyedLog -> LOG_UNIT_DESTROYED
+                is RotateTileLog -> LOG_ROTATE
+                else -> return
+            }
+            val interactor = interactorId(log.cause)
+            lastLog = log
+
+            out.writeByte(RECORD_LOG)
+            out.writeByte(type)
+            out.writeInt(log.origin)
+            out.writeLong(log.timeMillis)
+            out.writeInt(interactor)
+            out.writeShort((log as? AbstractTileLog)?.block?.id?.toInt() ?: (log as? UnitDestroyedLog)?.unitType?.id?.toInt() ?: -1)
+            out.writeInt(when (log) {
+                is ConfigureTileLog -> log.rotation
+                is TilePlacedLog -> log.rotation
+                is RotateTileLog -> log.rotation
+                else -> 0
+            })
+            out.writeBoolean((log as? RotateTileLog)?.direction ?: (log as? UnitDestroyedLog)?.isPlayer ?: false)
+            writeConfig((log as? ConfigureTileLog)?.configuration ?: (log as? TilePlacedLog)?.configuration)
+        }
+
+        out.writeByte(RECORD_TILE)
+        out.writeInt(pos)
+    }
+
+    private fun interactorId(interactor: Interactor): Int {
+        val existing = interactorIds.get(interactor, -1)
+        if (existing != -1) return existing
+
+        val id = interactorIds.size
+        interactorIds.put(interactor, id)
+        out.writeByte(RECORD_INTERACTOR)
+        out.writeInt(interactor.playerID)
+        out.writeUTF(interactor.name)
+        out.writeUTF(interactor.shortName)
+        return id
+    }
+
+    private fun writeConfig(config: Any?) {
+        configBuffer.reset()
+        try {
+            TypeIO.writeObject(configWrites, config)
+        } catch (e: IllegalArgumentException) { // Not every configuration can be serialized
+            configBuffer.reset()
+            TypeIO.writeObject(configWrites, null)
+        }
+        out.write(configBuffer.bytes, 0, configBuffer.size())
+    }
+
+    /** Compresses a block and appends it to the current segment. Runs on the writer thread. */
+    private fun append(dir: Fi, data: ByteArray, tick: Long) {
+        val deflater = Deflater(Deflater.BEST_SPEED)
+        deflater.setInput(data)
+        deflater.finish()
+        val compressed = ByteArrayOutputStream(data.size / 2)
+        val chunk = ByteArray(8192)
+        while (!deflater.finished()) {
+            compressed.write(chunk, 0, deflater.deflate(chunk))
+        }
+        deflater.end()
+
+        var file = dir.child("segment-$segment.bin")
+        if (file.exists() && file.length() > SEGMENT_SIZE) file = dir.child("segment-${++segment}.bin")
+
+        DataOutputStream(file.write(true, 8192)).use {
+            it.writeLong(tick)
+            it.writeInt(data.size)
+            it.writeInt(compressed.size())
+            compressed.writeTo(it)
+        }
+    }
+
+    /**
+     * Reads a journal back into [TileRecords]. Its join time and interactor ids are only kept once it was read entirely.
+     * @return false if it was written for another map instance.
+     */
+    private fun load(dir: Fi): Boolean {
+        val meta = dir.child("journal.bin")
+        if (!meta.exists()) return false
+        val joinTime = DataInputStream(meta.read(64)).use {
+            if (it.readInt() != MAGIC || it.readInt() != VERSION) return false
+            if (it.readInt() != world.width() || it.readInt() != world.height()) return false
+            it.readLong()
+        }
+
+        val blocks = Seq<ByteArray>()
+        var lastTick = 0L
+        for (file in segments(dir)) {
+            DataInputStream(ByteArrayInputStream(file.readBytes())).use {
+                while (true) {
+                    val tick: Long
+                    val data: ByteArray
+                    try {
+                        tick = it.readLong()
+                        val size = it.readInt()
+                        val compressedSize = it.readInt()
+                        // Deflate can't compress by more than about 1032:1, so a larger size is garbage
+                        if (size < 0 || compressedSize < 0 || compressedSize > it.available() || size > compressedSize * 1032L + 64) break
+                        val compressed = ByteArray(compressedSize)
+                        it.readFully(compressed)
+
+                        // One spare byte, so the inflater gets to read the end of the stream and a block that inflates to more than its size is caught
+                        val inflated = ByteArray(size + 1)
+                        var read = 0
+                        val inflater = Inflater()
+                        try {
+                            inflater.setInput(compressed)
+                            while (!inflater.finished()) {
+                                val n = inflater.inflate(inflated, read, inflated.size - read)
+                                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary() || read == inflated.size)) break
+                                read += n
+                            }
+                            if (read != size || !inflater.finished()) break
+                        } finally {
+                            inflater.end()
+                        }
+                        data = inflated.copyOf(size)
+                    } catch (e: EOFException) { // The last block may be cut off if the client crashed while writing it
+                        break
+                    } catch (e: DataFormatException) {
+                        break
+                    }
+                    blocks.add(data)
+                    lastTick = tick
+                }
+            }
+        }
+
+        // The map was restarted since, so the history no longer matches the tiles
+        if (lastTick > state.tick) return false
+
+        val interactors = Seq<Interactor>()
+        var log: TileLog? = null
+        for (data in blocks) {
+            val stream = DataInputStream(ByteArrayInputStream(data))
+            val reads = Reads(stream)
+            while (stream.available() > 0) {
+                when (stream.readByte().toInt()) {
+                    RECORD_INTERACTOR -> {
+                        val playerID = stream.readInt()
+                        val interactor = StoredInteractor(stream.readUTF(), stream.readUTF(), playerID)
+                        interactors.add(Interactors.intern(interactor))
+                    }
+                    RECORD_SNAPSHOT -> {
+                        val pos = stream.readInt()
+                        val block = content.block(stream.readShort().toInt())
+                        val rotation = stream.readInt()
+                        val team = Team.get(stream.readUnsignedByte())
+                        val isRootTile = stream.readBoolean()
+                        val time = Instant.ofEpochMilli(stream.readLong())
+                        val config = TypeIO.readObject(reads)
+                        val x = Point2.x(pos).toInt()
+                        val y = Point2.y(pos).toInt()
+                        TileRecords.restoreSequence(x, y, TileState(x, y, block, rotation, config, team, time, isRootTile))
+                    }
+                    RECORD_LOG -> log = readLog(stream, reads, interactors)
+                    RECORD_TILE -> {
+                        val pos = stream.readInt()
+                        TileRecords.restoreLog(Point2.x(pos).toInt(), Point2.y(pos).toInt(), log ?: continue)
+                    }
+                    else -> throw IOException("Unknown tile journal record")
+                }
+            }
+        }
+
+        TileRecords.joinTime = Instant.ofEpochMilli(joinTime)
+        interactors.forEachIndexed { i, interactor -> interactorIds.put(interactor, i) }
+        return true
+    }
+
+    private fun readLog(stream: DataInputStream, reads: Reads, interactors: Seq<Interactor>): TileLog? {
+        val type = stream.readByte().toInt()
+        val tile = world.tile(stream.readInt())
+        val timeMillis = stream.readLong()
+        val cause = interactors[stream.readInt()]
+        val id = stream.readShort().toInt()
+        val rotation = stream.readInt()
+        val flag = stream.readBoolean()
+        val config = TypeIO.readObject(reads)
+        tile ?: return null
+
+        if (type == LOG_UNIT_DESTROYED) {
+            return UnitDestroyedLog(tile, cause, if (id >= 0) content.unit(id) else null, flag).also { it.timeMillis = timeMillis }
+        }
+
+        val block = content.block(id) ?: return null
+        val log = when (type) {
+            LOG_CONFIGURE -> ConfigureTileLog(tile, cause, block, rotation, config)
+            LOG_PLACED -> TilePlacedLog(tile, cause, block, rotation, config)
+            LOG_PAYLOAD_DROP -> BlockPayloadDropLog(tile, cause, block, rotation, config)
+            LOG_BREAK -> TileBreakLog(tile, cause, block)
+            LOG_PAYLOAD_PICKUP -> BlockPayloadPickupLog(tile, cause, block)
+            LOG_DESTROYED -> TileDestroyedLog(tile, block)
+            LOG_ROTATE -> RotateTileLog(tile, cause, block, rotation, flag)
+            else -> return null
+        }
+        log.timeMillis = timeMillis
+        return log
+    }
+
+    private fun segments(dir: Fi) = dir.list().filter { it.name().startsWith("segment-") }.sortedBy { it.nameWithoutExtension().substringAfter('-').toIntOrNull() ?: 0 }
+
+    /** Deletes journals that have not been written to in a week */
+    private fun prune() {
+        for (server in root.list()) {
+            for (map in server.list()) {
+                for (journal in map.list()) {
+                    val modified = journal.list().maxOfOrNull { it.lastModified() } ?: journal.lastModified()
+                    if (Time.millis() - modified > MAX_AGE && journal != directory) journal.deleteDirectory()
+                }
+                if (map.list().isEmpty()) map.deleteDirectory()
+            }
+            if (server.list().isEmpty()) server.deleteDirectory()
+        }
+    }
+
+    private fun sanitize(name: String) = name.replace(Regex("[^A-Za-z0-9._-]"), "_")
+}
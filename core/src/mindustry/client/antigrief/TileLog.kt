@@ -11,6 +11,7 @@ import mindustry.client.utils.*
 import mindustry.content.*
 import mindustry.core.*
 import mindustry.gen.Unit
+import mindustry.type.*
 import mindustry.ui.*
 import mindustry.world.*
 import java.time.*
@@ -32,10 +33,23 @@ data class IntRectangle(val x: Int, val y: Int, val width: Int, val height: Int)
 }
 
 private var lastID: Long = 0
-abstract class TileLog(val position: IntRectangle, override val cause: Interactor) : InteractionLog {
+/** [origin] is the packed position of the tile the log was made for, which is the center of [position] for buildings. */
+abstract class TileLog(position: IntRectangle, cause: Interactor, val origin: Int) : InteractionLog {
     val id: Long = lastID++
 
-    override val time: Instant = Instant.now()
+    override val cause: Interactor = Interactors.intern(cause)
+
+    /** The affected area packed as four shorts, long sessions hold millions of logs so an [IntRectangle] each adds up */
+    private val area: Long = (position.x.toLong() and 0xFFFF) or ((position.y.toLong() and 0xFFFF) shl 16) or
+            ((position.width.toLong() and 0xFFFF) shl 32) or ((position.height.toLong() and 0xFFFF) shl 48)
+
+    val position get() = IntRectangle(area.toShort().toInt(), (area shr 16).toShort().toInt(), (area shr 32).toShort().toInt(), (area shr 48).toShort().toInt())
+
+    /** Creation time in epoch millis. Prefer this over [time] in loops, as that allocates. */
+    var timeMillis: Long = System.currentTimeMillis()
+        internal set
+
+    override val time: Instant get() = Instant.ofEpochMilli(timeMillis)
 
     companion object {
         fun Tile.linkedArea(): IntRectangle {
@@ -55,7 +69,7 @@ abstract class TileLog(val position: IntRectangle, override val cause: Interacto
         }
     }
 
-    constructor(tile: Tile, cause: Interactor) : this(tile.linkedArea(), cause)
+    constructor(tile: Tile, cause: Interactor) : this(tile.linkedArea(), cause, tile.pos())
 
     abstract fun apply(previous: TileState)
 
@@ -89,6 +103,26 @@ class TileLogSequence(val snapshot: TileState, val startingIndex: Int) : Iterabl
         return cpy
     }
 
+    val snapshotMillis get() = snapshot.time.toEpochMilli()
+
+    /** @return the amount of logs made at or before [timeMillis]. Logs are appended in order, so this is a binary search. */
+    fun countUntil(timeMillis: Long): Int {
+        var low = 0
+        var high = logs.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (logs[mid].timeMillis <= timeMillis) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    /** @return the state of the tile at [timeMillis], which should not be before [snapshot] */
+    fun stateAt(timeMillis: Long): TileState {
+        val state = snapshot.clone()
+        for (i in 0 until countUntil(timeMillis)) logs[i].apply(state)
+        return state
+    }
+
     fun after(index: Int): List<TileLog> {
         return logs.slice((index - startingIndex).coerceIn(logs.indices.apply { if (isEmpty()) return emptyList() /*idk either*/ }) until logs.size)
     }
@@ -106,12 +140,27 @@ class TileRecord(val x: Int, val y: Int) {
                 val state = TileState(tile)
                 state.time = joinTime
                 sequences!!.add(TileLogSequence(state, 0))
+                TileJournal.snapshot(state)
             }
             sequences!!.last().logs.size > 100 -> {
-                sequences!!.add(TileLogSequence(TileState(tile), sequences!!.last().range.last))
+                val state = TileState(tile)
+                sequences!!.add(TileLogSequence(state, sequences!!.last().range.last))
+                TileJournal.snapshot(state)
             }
         }
         sequences!!.last().addLog(log)
+        TileJournal.log(x, y, log)
+    }
+
+    /** Starts a sequence from a stored snapshot, for [TileJournal] */
+    internal fun restoreSequence(snapshot: TileState) {
+        val sequences = sequences ?: mutableListOf<TileLogSequence>().also { sequences = it }
+        sequences.add(TileLogSequence(snapshot, sequences.lastOrNull()?.range?.last ?: 0))
+    }
+
+    /** Adds a stored log to the last sequence, for [TileJournal] */
+    internal fun restoreLog(log: TileLog) {
+        sequences?.lastOrNull()?.addLog(log)
     }
 
     operator fun get(index: Int): TileState? {
@@ -132,10 +181,25 @@ class TileRecord(val x: Int, val y: Int) {
     }
 
     /** Returns the last TileLogSequence before a certain time - that is, time will be within returned sequence **/
-    fun lastSequence(time: Instant): TileLogSequence? {
-        return sequences?.asReversed()?.first { it.snapshot.time <= time }
+    fun lastSequence(time: Instant): TileLogSequence? = lastSequence(time.toEpochMilli())
+
+    fun lastSequence(timeMillis: Long): TileLogSequence? = sequences?.getOrNull(lastSequenceIndex(timeMillis))
+
+    /** @return the index of the last sequence whose snapshot was taken at or before [timeMillis], or -1 if there is none */
+    fun lastSequenceIndex(timeMillis: Long): Int {
+        val sequences = sequences ?: return -1
+        var low = 0
+        var high = sequences.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (sequences[mid].snapshotMillis <= timeMillis) low = mid + 1 else high = mid
+        }
+        return low - 1
     }
 
+    /** @return the state of the tile at [timeMillis]. As a sequence is started every 100 logs, this replays at most that many. */
+    fun stateAt(timeMillis: Long): TileState? = lastSequence(timeMillis)?.stateAt(timeMillis)
+
     fun oldestLog(sequence: TileLogSequence): TileLog? {
         return if (sequence.logs.isNotEmpty()) sequence.logs[0] else null
     }
@@ -163,7 +227,7 @@ class TileRecord(val x: Int, val y: Int) {
             }
             for (sequence in sequences!!) {
                 for ((index, log) in sequence.withIndex()) {
-                    t.add(log.toString() + " (" + UI.formatTime((Time.timeSinceMillis(log.time.toEpochMilli()) / 16.667).toFloat()) + ")").left()
+                    t.add(log.toString() + " (" + UI.formatTime((Time.timeSinceMillis(log.timeMillis) / 16.667).toFloat()) + ")").left()
                     t.row()
                     t.button("@client.state") {
                         dialog("@client.log") {
@@ -186,9 +250,9 @@ private fun String.shorten() = take(MAX_NAME_LENGTH).let {
     if (length > MAX_NAME_LENGTH) "$it..." else it
 }
 
-abstract class AbstractTileLog(tile: Tile, cause: Interactor, val block: Block) : TileLog(tile, cause) {
-    protected val eventPlayer: String = cause.shortName.stripColors().shorten()
-    protected val eventTarget: String = if (Core.settings.getBool("useiconslogs")) Fonts.getUnicodeStr(block.name) else block.localizedName
+abstract class AbstractTileLog(tile: Tile, cause: Interactor, val block: Block) : TileLog(linkedArea(tile, block.size), cause, tile.pos()) {
+    protected val eventPlayer: String get() = cause.shortName.stripColors().shorten()
+    protected val eventTarget: String get() = if (Core.settings.getBool("useiconslogs")) Fonts.getUnicodeStr(block.name) else block.localizedName
 }
 
 class ConfigureTileLog(tile: Tile, cause: Interactor, block: Block, val rotation: Int, var configuration: Any?) : AbstractTileLog(tile, cause, block) {
@@ -205,17 +269,18 @@ class ConfigureTileLog(tile: Tile, cause: Interactor, block: Block, val rotation
         }
     }
 
-    private val eventName: String = if(Core.settings.getBool("colorizelogs")) "[accent]${Core.bundle.get("client.configured")}[]" else Core.bundle.get("client.configured")
+    private val eventName: String get() = if(Core.settings.getBool("colorizelogs")) "[accent]${Core.bundle.get("client.configured")}[]" else Core.bundle.get("client.configured")
 
     override fun toShortString() = "$eventPlayer $eventName $eventTarget"
 }
 
-open class TilePlacedLog(tile: Tile, cause: Interactor, block: Block, var rotation: Int = tile.build?.rotation ?: 0, var configuration: Any?, val isRootTile: Boolean) : AbstractTileLog(tile, cause, block) {
+/** Shared by every tile of the placed building, [tile] being the one the building is centered on. */
+open class TilePlacedLog(tile: Tile, cause: Interactor, block: Block, var rotation: Int = tile.build?.rotation ?: 0, var configuration: Any?) : AbstractTileLog(tile, cause, block) {
     override fun apply(previous: TileState) {
         previous.block = block
         previous.rotation = rotation
         previous.configuration = configuration
-        previous.isRootTile = isRootTile
+        previous.isRootTile = Point2.pack(previous.x, previous.y) == origin
     }
 
     fun updateLog(rotation: Int?, configuration: Any?) {
@@ -227,17 +292,17 @@ open class TilePlacedLog(tile: Tile, cause: Interactor, block: Block, var rotati
         return "${cause.name.stripColors()} ${Core.bundle.get("client.built")} ${block.localizedName}"
     }
 
-    private val eventName: String = if(Core.settings.getBool("colorizelogs")) "[green]${Core.bundle.get("client.built")}[]" else Core.bundle.get("client.built")
+    private val eventName: String get() = if(Core.settings.getBool("colorizelogs")) "[green]${Core.bundle.get("client.built")}[]" else Core.bundle.get("client.built")
 
     override fun toShortString() = "$eventPlayer $eventName $eventTarget"
 }
 
-class BlockPayloadDropLog(tile: Tile, cause: Interactor, block: Block, rotation: Int, configuration: Any?, origin: Boolean) : TilePlacedLog(tile, cause, block, rotation, configuration, origin) {
+class BlockPayloadDropLog(tile: Tile, cause: Interactor, block: Block, rotation: Int, configuration: Any?) : TilePlacedLog(tile, cause, block, rotation, configuration) {
     override fun toString(): String {
         return "${cause.name.stripColors()} ${Core.bundle.get("client.putdown")} ${block.localizedName}"
     }
 
-    private val eventName: String = if(Core.settings.getBool("colorizelogs")) "[accent]${Core.bundle.get("client.putdown")}[]" else Core.bundle.get("client.putdown")
+    private val eventName: String get() = if(Core.settings.getBool("colorizelogs")) "[accent]${Core.bundle.get("client.putdown")}[]" else Core.bundle.get("client.putdown")
 
     override fun toShortString() = "$eventPlayer $eventName $eventTarget"
 }
@@ -254,7 +319,7 @@ open class TileBreakLog(tile: Tile, cause: Interactor, block: Block) : AbstractT
         return "${cause.name.stripColors()} ${Core.bundle.get("client.broke")} ${block.localizedName}"
     }
 
-    private val eventName: String = if(Core.settings.getBool("colorizelogs")) "[red]${Core.bundle.get("client.broke")}[]" else Core.bundle.get("client.broke")
+    private val eventName: String get() = if(Core.settings.getBool("colorizelogs")) "[red]${Core.bundle.get("client.broke")}[]" else Core.bundle.get("client.broke")
 
     override fun toShortString() = "$eventPlayer $eventName $eventTarget"
 }
@@ -264,7 +329,7 @@ class BlockPayloadPickupLog(tile: Tile, cause: Interactor, block: Block) : TileB
         return "${cause.name.stripColors()} ${Core.bundle.get("client.pickedup")} ${block.localizedName}"
     }
 
-    private val eventName: String = if (Core.settings.getBool("colorizelogs")) "[accent]${Core.bundle.get("client.pickedup")}[]" else Core.bundle.get("client.pickedup")
+    private val eventName: String get() = if (Core.settings.getBool("colorizelogs")) "[accent]${Core.bundle.get("client.pickedup")}[]" else Core.bundle.get("client.pickedup")
 
     override fun toShortString() = "$eventPlayer $eventName $eventTarget"
 }
@@ -273,24 +338,27 @@ class TileDestroyedLog(tile: Tile, block: Block) : TileBreakLog(tile, NoInteract
         return "${block.localizedName} ${Core.bundle.get("client.destroyed")}"
     }
 
-    private val eventName: String = if(Core.settings.getBool("colorizelogs")) "[red]${Core.bundle.get("client.destroyed")}[]" else Core.bundle.get("client.destroyed")
+    private val eventName: String get() = if(Core.settings.getBool("colorizelogs")) "[red]${Core.bundle.get("client.destroyed")}[]" else Core.bundle.get("client.destroyed")
 
     override fun toShortString() = "$eventTarget $eventName"
 }
 
-class UnitDestroyedLog(val tile: Tile, cause: Interactor, val unit: Unit, val isPlayer: Boolean) : TileLog(tile, cause) {
+/** Only the type of the unit is kept, as units are pooled and reused. */
+class UnitDestroyedLog(val tile: Tile, cause: Interactor, val unitType: UnitType?, val isPlayer: Boolean) : TileLog(tile, cause) {
+    constructor(tile: Tile, cause: Interactor, unit: Unit, isPlayer: Boolean) : this(tile, cause, unit.type, isPlayer)
+
     override fun apply(previous: TileState) {
         //pass
     }
 
     override fun toString(): String {
-        return if(isPlayer) "${cause.name.stripColors()} ${Core.bundle.get("client.playerunitdeath")} ${unit.type?.localizedName ?: "null unit"}" else "${cause.name.stripColors()} ${Core.bundle.get("client.unitdeath")}"
+        return if(isPlayer) "${cause.name.stripColors()} ${Core.bundle.get("client.playerunitdeath")} ${unitType?.localizedName ?: "null unit"}" else "${cause.name.stripColors()} ${Core.bundle.get("client.unitdeath")}"
     }
 
-    private val eventController: String = "${cause.shortName.stripColors().take(16)}${if (cause.shortName.stripColors().length > 16) "..." else ""}"
-    private val eventNamePlayer: String = if(Core.settings.getBool("colorizelogs")) "[red]${Core.bundle.get("client.playerunitdeath")}[]" else Core.bundle.get("client.playerunitdeath")
-    private val eventNameLogic: String = if(Core.settings.getBool("colorizelogs")) "[red]${Core.bundle.get("client.unitdeath")}[]" else Core.bundle.get("client.unitdeath")
-    private val eventUnit: String = if(Core.settings.getBool("useiconslogs") && unit.type.name.isNotEmpty()) Fonts.getUnicodeStr(unit.type.name) else unit.type?.localizedName ?: "null unit"
+    private val eventController: String get() = "${cause.shortName.stripColors().take(16)}${if (cause.shortName.stripColors().length > 16) "..." else ""}"
+    private val eventNamePlayer: String get() = if(Core.settings.getBool("colorizelogs")) "[red]${Core.bundle.get("client.playerunitdeath")}[]" else Core.bundle.get("client.playerunitdeath")
+    private val eventNameLogic: String get() = if(Core.settings.getBool("colorizelogs")) "[red]${Core.bundle.get("client.unitdeath")}[]" else Core.bundle.get("client.unitdeath")
+    private val eventUnit: String get() = if(Core.settings.getBool("useiconslogs") && unitType?.name?.isNotEmpty() == true) Fonts.getUnicodeStr(unitType.name) else unitType?.localizedName ?: "null unit"
 
     override fun toShortString(): String {
         return if(isPlayer) "$eventController $eventNamePlayer $eventUnit" else "$eventController $eventNameLogic"
@@ -306,7 +374,7 @@ class RotateTileLog(tile: Tile, cause: Interactor, block: Block, val rotation: I
         return "${cause.name.stripColors()} ${Core.bundle.get("client.rotated")} ${block.localizedName} ${Core.bundle.get(if (direction) "client.counterclockwise" else "client.clockwise")}"
     }
 
-    private val eventName: String = if(Core.settings.getBool("colorizelogs")) "[accent]${Core.bundle.get("client.rotated")}[]" else Core.bundle.get("client.rotated")
+    private val eventName: String get() = if(Core.settings.getBool("colorizelogs")) "[accent]${Core.bundle.get("client.rotated")}[]" else Core.bundle.get("client.rotated")
 
     override fun toShortString() = "$eventPlayer $eventName $eventTarget"
 }
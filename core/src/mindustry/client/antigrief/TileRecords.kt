@@ -16,76 +16,83 @@ import java.time.*
 import kotlin.math.*
 
 object TileRecords {
-    private var records: Array<Array<TileRecord>> = arrayOf(arrayOf())
+    private const val CHUNK_BITS = 4
+    private const val CHUNK_SIZE = 1 shl CHUNK_BITS
+
+    /** Records are only created for tiles with history, grouped in chunks of [CHUNK_SIZE]² that are allocated on first use */
+    private var chunks: Array<Array<TileRecord?>?> = arrayOf()
+    private var width = 0
+    private var height = 0
+    private var chunksWide = 0
     var joinTime: Instant = Instant.EPOCH
 
     fun initialize() {
         Events.on(EventType.WorldLoadEvent::class.java) {
             val startTime = Time.globalTime / 60.0 - Vars.state.tick / 60.0
             var sameMap = abs(ClientVars.lastServerStartTime - startTime) < 10 // if start time of map is within 10s of the previous start time
-            sameMap = sameMap && records.isNotEmpty() && Vars.state.map.name() == ClientVars.lastServerName &&
-                    Vars.world.width() == records.size && Vars.world.height() == records[0].size
+            sameMap = sameMap && chunks.isNotEmpty() && Vars.state.map.name() == ClientVars.lastServerName &&
+                    Vars.world.width() == width && Vars.world.height() == height
 
             ClientVars.lastServerStartTime = startTime
             ClientVars.lastServerName = Vars.state.map.name()
             if (!ClientVars.syncing && !sameMap) {
-                records = Array(Vars.world.width()) { x -> Array(Vars.world.height()) { y -> TileRecord(x, y) } }
+                width = Vars.world.width()
+                height = Vars.world.height()
+                chunksWide = (width + CHUNK_SIZE - 1) shr CHUNK_BITS
+                chunks = arrayOfNulls(chunksWide * ((height + CHUNK_SIZE - 1) shr CHUNK_BITS))
+                TileHistoryIndex.reset(width, height)
+                Interactors.clear()
                 joinTime = Instant.now()
+                TileJournal.open()
             }
         }
 
+        // Each event creates a single log that is shared by the records of every tile in the building's footprint
         Events.on(EventType.BlockBuildBeginEventBefore::class.java) {
             if (it.newBlock == null || it.newBlock == Blocks.air) {
-                it.tile.getLinkedTiles { tile ->
-                    addLog(tile, TileBreakLog(tile, it.unit.toInteractor(), tile.block()))
-                }
-            } else { // FINISHME: slightly very inefficient?
-                it.tile.getLinkedTilesAs(it.newBlock) { tile ->
-                    val log = TilePlacedLog(tile, it.unit.toInteractor(),
-                        it.newBlock, -1, null, tile == it.tile)
-                    addLog(tile, log)
-                    Core.app.post { // When BlockBuildBeginEvent is fired. Or the building is just rotated.
-                        log.updateLog(tile.build?.rotation, tile.build?.config())
-                    }
+                val log = TileBreakLog(it.tile, it.unit.toInteractor(), it.tile.block())
+                it.tile.getLinkedTiles { tile -> addLog(tile, log) }
+            } else {
+                val log = TilePlacedLog(it.tile, it.unit.toInteractor(), it.newBlock, -1, null)
+                it.tile.getLinkedTilesAs(it.newBlock) { tile -> addLog(tile, log) }
+                Core.app.post { // When BlockBuildBeginEvent is fired. Or the building is just rotated.
+                    log.updateLog(it.tile.build?.rotation, it.tile.build?.config())
                 }
             }
         }
 
         Events.on(EventType.BlockBuildEndEvent::class.java) {
             if (it.breaking) return@on
+            val config = it.tile.build?.config() ?: return@on // FINISHME: Build is nullable for some reason (see https://discord.com/channels/965438060508631050/965438061003550722/1039950910295658600)
             it.tile.getLinkedTiles { tile ->
                 val sequence = this[tile]?.sequences ?: return@getLinkedTiles
-                (sequence.last().logs.lastOrNull() as? TilePlacedLog)?.configuration = it.tile.build?.config() ?: return@getLinkedTiles // FINISHME: Build is nullable for some reason (see https://discord.com/channels/965438060508631050/965438061003550722/1039950910295658600)
+                (sequence.last().logs.lastOrNull() as? TilePlacedLog)?.configuration = config
             }
         }
 
         Events.on(EventType.ConfigEventBefore::class.java) {
             if (it.player != null) Seer.blockConfig(it.player, it.tile.tile, it.value)
-            it.tile.tile.getLinkedTiles { tile ->
-                addLog(tile, ConfigureTileLog(tile, it.player.toInteractor(), tile.block(), it.tile.rotation, it.value))
-            }
+            val log = ConfigureTileLog(it.tile.tile, it.player.toInteractor(), it.tile.block, it.tile.rotation, it.value)
+            it.tile.tile.getLinkedTiles { tile -> addLog(tile, log) }
         }
 
         Events.on(EventType.BuildPayloadPickup::class.java) {
-            it.tile.getLinkedTiles { tile ->
-                addLog(tile, BlockPayloadPickupLog(tile, it.unit.toInteractor(), it.building.block))
-            }
+            val log = BlockPayloadPickupLog(it.tile, it.unit.toInteractor(), it.building.block)
+            it.tile.getLinkedTiles { tile -> addLog(tile, log) }
         }
 
         Events.on(EventType.BuildPayloadDrop::class.java) {
-            it.tile.getLinkedTilesAs(it.building.block) { tile ->
-                addLog(tile, BlockPayloadDropLog(tile, it.unit.toInteractor(), it.building.block, it.building.rotation, it.building.config(), isOrigin(tile)))
-            }
+            val log = BlockPayloadDropLog(it.tile, it.unit.toInteractor(), it.building.block, it.building.rotation, it.building.config())
+            it.tile.getLinkedTilesAs(it.building.block) { tile -> addLog(tile, log) }
         }
 
         Events.on(EventType.BlockDestroyEvent::class.java) {
             if (it.tile.team() != Vars.player.team()) return@on // Couldn't care less about enemies, especially in flood
-            it.tile.getLinkedTiles { tile ->
-                addLog(tile, TileDestroyedLog(tile,
-                    if (tile.build is ConstructBlock.ConstructBuild) (tile.build as ConstructBlock.ConstructBuild).current ?:
-                    (tile.build as ConstructBlock.ConstructBuild).previous
-                    else tile.block() ?: Blocks.air))
-            }
+            val build = it.tile.build
+            val log = TileDestroyedLog(it.tile,
+                if (build is ConstructBlock.ConstructBuild) build.current ?: build.previous
+                else it.tile.block() ?: Blocks.air)
+            it.tile.getLinkedTiles { tile -> addLog(tile, log) }
         }
 
         Events.on(EventType.UnitDeadEvent::class.java) {
@@ -93,11 +100,11 @@ object TileRecords {
             val controller = it.unit.controller()
             if(controller !is LogicAI && controller !is Player) return@on
 
+            val log = UnitDestroyedLog(it.unit.tileOn(), it.unit.toInteractor(), it.unit, controller is Player)
             val threshold = it.unit.type.hitSize * it.unit.type.hitSize + 0.01f
             for (point in TileLog.linkedArea(it.unit.tileOn(), Mathf.ceil(it.unit.type.hitSize / Vars.tilesize))) {
                 if (point in Vars.world && it.unit.within(Vars.world[point], threshold)) {
-                    val tile = Vars.world[point]
-                    addLog(tile, UnitDestroyedLog(tile, it.unit.toInteractor(), it.unit, controller is Player))
+                    addLog(Vars.world[point], log)
                 }
             }
         }
@@ -105,24 +112,52 @@ object TileRecords {
         Events.on(EventType.BuildRotateEvent::class.java) {
             val player = it.unit?.player ?: return@on
             val direction = rotationDirection(it.previous, it.build.rotation)
-            it.build.tile.getLinkedTiles { tile ->
-                addLog(tile, RotateTileLog(tile, player.toInteractor(), it.build.block, it.build.rotation, direction))
-            }
+            val log = RotateTileLog(it.build.tile, player.toInteractor(), it.build.block, it.build.rotation, direction)
+            it.build.tile.getLinkedTiles { tile -> addLog(tile, log) }
         }
     }
 
-    operator fun get(x: Int, y: Int): TileRecord? = records.getOrNull(x)?.getOrNull(y)
+    /** @return the record of a tile, or null if it is out of bounds or has no history */
+    operator fun get(x: Int, y: Int): TileRecord? {
+        if (x < 0 || y < 0 || x >= width || y >= height) return null
+        val chunk = chunks[(x shr CHUNK_BITS) + (y shr CHUNK_BITS) * chunksWide] ?: return null
+        return chunk[(x and (CHUNK_SIZE - 1)) + (y and (CHUNK_SIZE - 1)) * CHUNK_SIZE]
+    }
 
     operator fun get(tile: Tile): TileRecord? = this[tile.x.toInt(), tile.y.toInt()]
 
+    private fun getOrCreate(x: Int, y: Int): TileRecord? {
+        if (x < 0 || y < 0 || x >= width || y >= height) return null
+        val chunkIndex = (x shr CHUNK_BITS) + (y shr CHUNK_BITS) * chunksWide
+        val chunk = chunks[chunkIndex] ?: arrayOfNulls<TileRecord>(CHUNK_SIZE * CHUNK_SIZE).also { chunks[chunkIndex] = it }
+        val index = (x and (CHUNK_SIZE - 1)) + (y and (CHUNK_SIZE - 1)) * CHUNK_SIZE
+        return chunk[index] ?: TileRecord(x, y).also { chunk[index] = it }
+    }
+
+    /** Drops all history, keeping the current map size */
+    fun clear() {
+        chunks.fill(null)
+        TileHistoryIndex.reset(width, height)
+    }
+
+    internal fun restoreSequence(x: Int, y: Int, snapshot: TileState) {
+        getOrCreate(x, y)?.restoreSequence(snapshot)
+    }
+
+    internal fun restoreLog(x: Int, y: Int, log: TileLog) {
+        getOrCreate(x, y)?.restoreLog(log) ?: return
+        TileHistoryIndex.add(x, y, log)
+    }
+
     private fun addLog(tile: Tile, log: TileLog) {
-        val logs = this[tile] ?: return
+        val logs = getOrCreate(tile.x.toInt(), tile.y.toInt()) ?: return
         logs.add(log, tile)
+        TileHistoryIndex.add(tile.x.toInt(), tile.y.toInt(), log)
     }
 
     fun show(tile: Tile) {
         dialog("Logs") {
-            cont.add(TileRecords[tile]?.toElement())
+            cont.add((TileRecords[tile] ?: TileRecord(tile.x.toInt(), tile.y.toInt())).toElement())
             addCloseButton()
         }.show()
     }
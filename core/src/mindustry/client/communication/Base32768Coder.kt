@@ -2,99 +2,104 @@ package mindustry.client.communication
 
 import mindustry.client.utils.*
 import java.io.*
-import java.math.*
+import java.nio.*
 
 /**
  * You've heard of base64, now get ready for... base32768.  Encodes 15 bits of data into each unicode character.
+ * The input is read as one big-endian number with a one bit in front of it, so that leading zero bytes survive, and written out 15 bits at a time
+ * starting from the least significant end. Each digit is offset by 128 to skip ascii, and a last character holds the input length (also offset by 128).
  * FINISHME: 16 bit with an escape character to avoid ascii control chars?  Encode more data in the escape char?
  */
 object Base32768Coder {
     private const val BITS = 15
+    private const val MASK = (1 shl BITS) - 1
+    private const val OFFSET = 128
 
     fun availableBytes(length: Int) = ((length.toDouble() * BITS) / 8).floor()
 
     fun encodedLengthOf(bytes: Int) = ((bytes.toDouble() * 8) / BITS).ceil()
 
-//    private const val MASK = 0b111111111111111U
+    /** @return the amount of digits [encode] writes for an input of [bytes], not counting the length character. */
+    private fun digitsOf(bytes: Int) = (bytes * 8 + BITS) / BITS
 
-    fun encode(input: ByteArray): String {
-        var inp = BigInteger(byteArrayOf(1).plus(input))
-        val out = mutableListOf<Int>()
-        val andValue = 2.toBigInteger().pow(BITS) - 1.toBigInteger()
-        while (inp != BigInteger.ZERO) {
-            out.add((inp and andValue).toInt() + 128)
-            inp = inp shr BITS
+    /** Encodes the remaining bytes of [input] into [output], which needs room for [encodedLengthOf] + 2 chars. */
+    fun encode(input: ByteBuffer, output: CharBuffer) {
+        val length = input.remaining()
+        var acc = 0
+        var bits = 0
+
+        // Least significant byte first, so digits can be written as soon as they are complete
+        for (i in input.limit() - 1 downTo input.position()) {
+            acc = acc or ((input.get(i).toInt() and 0xFF) shl bits)
+            bits += 8
+            if (bits >= BITS) {
+                output.putCode((acc and MASK) + OFFSET)
+                acc = acc ushr BITS
+                bits -= BITS
+            }
+        }
+
+        acc = acc or (1 shl bits++) // The leading one bit
+        while (bits > 0) {
+            output.putCode((acc and MASK) + OFFSET)
+            acc = acc ushr BITS
+            bits -= BITS
         }
-        return String(out.toIntArray(), 0, out.size) + String(intArrayOf(input.size + 128), 0, 1)
-
-//        val buffer = IntArray(encodedLengthOf(input.size) + 1)
-//        for (i in buffer.indices) {
-//            val bit = i * 15
-//            val num = bit % 8
-//            val n = bit / 8
-//            val res = when (num) {
-//                // 3 byte case
-//                in 2..7 -> {
-//                    var secondZeroed = false
-//                    var thirdZeroed = false
-//
-//                    val firstByte  = if (n < input.size) input[n].toUByte().toUInt() else 0U
-//                    val secondByte = if (n + 1 < input.size) input[n + 1].toUByte().toUInt() else { secondZeroed = true; 0U }
-//                    val thirdByte  = if (n + 2 < input.size) input[n + 2].toUByte().toUInt() else { thirdZeroed = true; 0U }
-//
-//                    // note: problem when i == 7
-//                            /*                    ((firstByte shl (num - 1)).shl(7).and(MASK) or
-//                            (secondByte shl (num - 1)) or
-//                            (thirdByte shr (9 - num)))*/
-//
-//                    ((firstByte shl (num + 6)).and(MASK) or
-//                            (secondByte shl (num - 1)) or
-//                            (thirdByte shr (9 - num)))/*.run {
-//                        // 11111111 11111111 00000000
-//                        //    11111 11111111 11
-//
-//                        // 00111111 11111111
-//                        // we want 16383 (00111111 11111111)
-//                        if (secondZeroed) this shr (15 - (9 - num)) else if (thirdZeroed) this shr (8 - (9 - num)) else this
-//                            }*/
-//                }
-//                // 2 byte cases
-//                0 -> {
-//                    val firstByte   = if (n < input.size) input[n].toUByte().toUInt() else 0U
-//                    val secondByte  = if (n + 1 < input.size) input[n + 1].toUByte().toUInt() else 0U
-//                    ((firstByte shl 7) or (secondByte shr 1)) and MASK
-//                }
-//                else /* 1 */ -> {
-//                    val firstByte   = if (n < input.size) input[n].toUByte().toUInt() else 0U
-//                    val secondByte  = if (n + 1 < input.size) input[n + 1].toUByte().toUInt() else 0U
-//                    (firstByte.shl(1).shr(1) or secondByte) and MASK
-//                }
-//            }
-//            buffer[i] = res.toInt() + 128
-//        }
-//
-////        println(input.joinToString())
-//        println(out.joinToString { it.minus(128).toString(2).padStart(32, '0') })
-//        println(buffer.joinToString { it.minus(128).toString(2).padStart(32, '0') })
-//        return String(buffer, 0, buffer.size) + String(intArrayOf(input.size + 128), 0, 1)
+
+        output.put(Character.toChars(length + OFFSET))
+        input.position(input.limit())
+    }
+
+    fun encode(input: ByteArray): String {
+        val output = CharBuffer.allocate(digitsOf(input.size) + 2)
+        encode(ByteBuffer.wrap(input), output)
+        return String(output.array(), 0, output.position())
     }
 
+    /** @return the amount of bytes [input] decodes to */
     @Throws(IOException::class)
-    fun decode(input: String): ByteArray {
-        try {
-            val length = input.codePointAt(input.length - 1) - 128
-            var out = BigInteger("0")
+    fun decodedLengthOf(input: CharSequence): Int {
+        if (input.isEmpty()) throw IOException("Empty input")
+        val length = Character.codePointAt(input, input.length - 1) - OFFSET
+        if (length < 0 || (input.length - 1) < digitsOf(length)) throw IOException("Invalid length $length for ${input.length} characters")
+        return length
+    }
 
-            for ((index, s) in input.dropLast(1).chunked(1).withIndex()) {
-                out += (s.codePointAt(0) - 128).toBigInteger() shl (index * BITS)
+    /** Decodes [input] into [output], which needs room for [decodedLengthOf] bytes. */
+    @Throws(IOException::class)
+    fun decode(input: CharSequence, output: ByteBuffer) {
+        val length = decodedLengthOf(input)
+        if (output.remaining() < length) throw IOException("Not enough space to decode $length bytes")
+
+        // Bytes come out least significant first, so they are written from the end
+        val end = output.position() + length
+        var acc = 0
+        var bits = 0
+        var written = 0
+        var i = 0
+        while (written < length) {
+            val digit = input[i++].code - OFFSET
+            if (digit < 0 || digit > MASK) throw IOException("Invalid character at $i")
+            acc = acc or (digit shl bits)
+            bits += BITS
+            while (bits >= 8 && written < length) {
+                output.put(end - 1 - written++, acc.toByte())
+                acc = acc ushr 8
+                bits -= 8
             }
-            val outp = out.toByteArray().plus(0)
-            return outp.sliceArray(1..length)
-        } catch (e: Exception) {
-            throw IOException(e)
         }
+        output.position(end)
     }
 
+    @Throws(IOException::class)
+    fun decode(input: String): ByteArray {
+        val output = ByteArray(decodedLengthOf(input))
+        decode(input, ByteBuffer.wrap(output))
+        return output
+    }
+
+    private fun CharBuffer.putCode(code: Int) = put(code.toChar())
+
     fun encode(string: String): String {
         return encode(string.toByteArray(Charsets.UTF_8))
     }
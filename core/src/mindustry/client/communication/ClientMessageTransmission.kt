@@ -19,6 +19,7 @@ class ClientMessageTransmission : Transmission {
 
     override var id = Random.nextLong()
     override val secureOnly: Boolean = false
+    override val priority = TransmissionPriority.INTERACTIVE
     val sender: String  // not serialized
     private var originalSender: String? = null // not serialized
     private val senderID: Int  // not serialized
@@ -35,6 +35,7 @@ class CommandTransmission : Transmission {
     }
 
     override val secureOnly: Boolean = false
+    override val priority = TransmissionPriority.INTERACTIVE
 
     companion object {
         var numStopIgnores: Int = 0
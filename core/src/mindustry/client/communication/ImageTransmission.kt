@@ -9,6 +9,7 @@ import kotlin.random.*
 class ImageTransmission : Transmission {
     override var id = Random.nextLong()
     override val secureOnly = false
+    override val priority = TransmissionPriority.BULK
     val message: Short
     val image: Pixmap
 
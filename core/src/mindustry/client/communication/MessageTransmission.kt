@@ -6,6 +6,7 @@ class MessageTransmission(val content: String) : Transmission {
 
     override var id = Random.nextLong()
     override val secureOnly: Boolean = true
+    override val priority = TransmissionPriority.INTERACTIVE
 
     constructor(input: ByteArray, id: Long, @Suppress("UNUSED_PARAMETER") senderID: Int) : this(input.decodeToString()) {
         this.id = id
@@ -1,8 +1,10 @@
 package mindustry.client.communication
 
+import arc.struct.*
 import arc.util.*
 import mindustry.client.communication.syncing.Syncer.*
 import mindustry.client.utils.*
+import mindustry.gen.*
 import java.nio.*
 import java.time.*
 import java.time.temporal.*
@@ -10,13 +12,14 @@ import java.util.*
 import java.util.concurrent.*
 import java.util.concurrent.locks.*
 import kotlin.concurrent.*
+import kotlin.math.*
 import kotlin.reflect.*
 
 object Packets {
     /** The list of registered types of [Transmission].  Transmissions MUST be registered here before use. */
     private val registeredTransmissionTypes = listOf<RegisteredTransmission<*>>(
         RegisteredTransmission(DummyTransmission::class, ::DummyTransmission),
-        RegisteredTransmission(DummyTransmission::class, ::DummyTransmission),  // Kept for compatibility, FINISHME: remove
+        RegisteredTransmission(VersionTransmission::class, ::VersionTransmission),  // Older clients read this slot as a dummy
         RegisteredTransmission(DummyTransmission::class, ::DummyTransmission),  // Kept for compatibility, FINISHME: remove
         RegisteredTransmission(BuildQueueTransmission::class, ::BuildQueueTransmission),
         RegisteredTransmission(TLSDataTransmission::class, ::TLSDataTransmission),
@@ -65,9 +68,11 @@ object Packets {
         }
 
         /** Deserializes a header.  Compatible with [toBytes]. */
-        constructor(array: ByteArray) {
-            if (array.size < HEADER_SIZE) throw IllegalArgumentException("Input array is not long enough to be a packet header!")
-            val buf = ByteBuffer.wrap(array)
+        constructor(array: ByteArray) : this(ByteBuffer.wrap(array))
+
+        /** Reads a header from the given buffer, advancing it past the header. */
+        constructor(buf: ByteBuffer) {
+            if (buf.remaining() < HEADER_SIZE) throw IllegalArgumentException("Input buffer is not long enough to be a packet header!")
             sequenceCount = buf.int
             sequenceNumber = buf.int
             expirationTime = buf.long.toInstant()
@@ -75,9 +80,6 @@ object Packets {
             transmissionType = buf.int
         }
 
-        /** Pulls the required bytes out of the given buffer. */
-        constructor(buf: ByteBuffer) : this(buf.bytes(HEADER_SIZE))
-
         /** Encodes this header to bytes, compatible with the byte array and buffer constructors. */
         fun toBytes(): ByteArray {
             return sequenceCount.toBytes() + sequenceNumber.toBytes() + expirationTime.epochSecond.toBytes() + transmissionId.toBytes() + transmissionType.toBytes()
@@ -127,15 +129,70 @@ object Packets {
 
         /** The time that the last packet was sent at. */
         private var lastSent = Interval()
-        /** A queue of packets waiting to be sent. */
-        private val outgoing = LinkedList<OutgoingTransmission>()
-        /** A list of incoming connections.  Each transmission ID is mapped to a nullable list of bytearray segments. */
+        /** Transmissions waiting to be sent, with a queue per registered type. */
+        private val outgoing = Array(registeredTransmissionTypes.size) { ArrayDeque<OutgoingTransmission>() }
+        /** Per [TransmissionPriority], the types with queued transmissions in the order they get to send their next packet. */
+        private val turns = Array(TransmissionPriority.values().size) { ArrayDeque<Int>() }
+        /** Sending statistics per registered type. */
+        private val stats = Array(registeredTransmissionTypes.size) { TransmissionStats() }
+        /** A list of incoming connections.  Each transmission ID is mapped to the buffer it is being reassembled in. */
         private val incoming = ConcurrentHashMap<Long, IncomingTransmission>()
         /** A list of listeners to be run when a transmission is received. */
         private val listeners = CopyOnWriteArrayList<(transmission: Transmission, senderId: Int) -> Unit>()
         private val listenersLock = ReentrantLock()
+        /** The newest [Compression] mode announced by each peer. */
+        private val peerCompression = IntIntMap()
 
-        data class IncomingTransmission(val segments: MutableList<ByteArray?>, var expirationTime: Instant)
+        /**
+         * Reassembles a transmission in a single buffer.  Every segment but the last has the same size, so once one of them arrives the
+         * full buffer is allocated and each segment is copied straight to its final offset.
+         */
+        class IncomingTransmission(val sequenceCount: Int, var expirationTime: Instant) {
+            private val received = BitSet(sequenceCount)
+            private var receivedCount = 0
+            /** The size of every segment but the last, or -1 until one of them arrives. */
+            private var segmentSize = -1
+            private var buffer: ByteArray? = null
+            /** The last segment, if it arrived before the buffer was allocated. */
+            private var last: ByteArray? = null
+            private var lastSize = -1
+
+            val complete get() = receivedCount == sequenceCount
+
+            /** Copies a segment out of [source].  Returns false if its size doesn't match the previous segments. */
+            fun add(sequenceNumber: Int, source: ByteArray, offset: Int, length: Int): Boolean {
+                if (received[sequenceNumber]) return true // Duplicate
+
+                if (sequenceNumber == sequenceCount - 1) {
+                    if (segmentSize != -1 && length > segmentSize) return false
+                    lastSize = length
+                    val buffer = buffer
+                    if (buffer == null) last = source.copyOfRange(offset, offset + length)
+                    else System.arraycopy(source, offset, buffer, sequenceNumber * segmentSize, length)
+                } else {
+                    if (segmentSize == -1) {
+                        if (lastSize > length) return false
+                        segmentSize = length
+                        buffer = ByteArray(length * sequenceCount)
+                        last?.copyInto(buffer!!, (sequenceCount - 1) * segmentSize)
+                        last = null
+                    } else if (length != segmentSize) {
+                        return false
+                    }
+                    System.arraycopy(source, offset, buffer!!, sequenceNumber * segmentSize, length)
+                }
+
+                received.set(sequenceNumber)
+                receivedCount++
+                return true
+            }
+
+            /** Decompresses the reassembled transmission.  Only valid once [complete]. */
+            fun inflate(): ByteArray {
+                val buffer = buffer ?: return Compression.inflate(last!!, 0, lastSize)
+                return Compression.inflate(buffer, 0, (sequenceCount - 1) * segmentSize + lastSize)
+            }
+        }
 
         init {
             communicationSystem.addListener(::handle)
@@ -147,17 +204,37 @@ object Packets {
             }
         }
 
-        /** Updates sending.  Call once per tick. */
-        fun update() {
-            if (lastSent.check(0, communicationSystem.RATE)) {
-                val toSend = outgoing.peek() ?: return // Return if there's nothing to send
-
-                // Gets the next packet in this transmission, if there are no more packets move to the next transmission
-                val packet = toSend.packets.poll() ?: run { outgoing.remove(toSend); toSend.onFinish?.run(); return }
+        /** Throughput and latency of one transmission type.  Latency is measured from [send] until the last packet went out. */
+        class TransmissionStats {
+            var transmissions = 0
+                private set
+            var packets = 0
+                private set
+            var bytes = 0L
+                private set
+            var totalLatency = 0L
+                private set
+            val averageLatency get() = if (transmissions == 0) 0L else totalLatency / transmissions
+
+            internal fun sent(size: Int) {
+                packets++
+                bytes += size
+            }
 
-                lastSent.reset(0, 0f) // Sending a packet, reset the timer fully
-                try { communicationSystem.send(packet.bytes()) } catch (e: Exception) { outgoing.remove(toSend); toSend.onError?.invoke() }
+            internal fun finished(latency: Long) {
+                transmissions++
+                totalLatency += latency
             }
+        }
+
+        /** Returns the sending statistics of each transmission type that has sent anything. */
+        fun stats(): List<Pair<String, TransmissionStats>> = registeredTransmissionTypes.indices
+            .filter { stats[it].packets > 0 }
+            .map { registeredTransmissionTypes[it].type.simpleName.orEmpty() to stats[it] }
+
+        /** Updates sending.  Call once per tick. */
+        fun update() {
+            if (lastSent.check(0, communicationSystem.RATE)) sendNext()
             for (inc in incoming) {
                 if (inc.value.expirationTime.isBefore(Instant.now())) {
                     Log.debug("Removing stale incoming message")
@@ -173,7 +250,8 @@ object Packets {
 
             try {
                 val header = Header(buf)
-                val content = buf.remainingBytes()
+                val offset = buf.position()
+                val length = buf.remaining()
 
                 if (header.sequenceNumber >= header.sequenceCount)
                     throw IndexOutOfBoundsException("Packet sequence number ${header.sequenceNumber} is greater than or equal to sequence count ${header.sequenceCount}!")
@@ -191,29 +269,97 @@ object Packets {
                     return
                 }
 
+                if (header.sequenceCount == 1) { // Single packet, nothing to reassemble
+                    receive(Compression.inflate(input, offset, length), header, sender)
+                    return
+                }
+
                 val entry = incoming[header.transmissionId] ?: run {
                     if (incoming.size > 50) { Log.debug("Too many incoming transmissions"); return@run null }  // too many incoming connections
-                    incoming[header.transmissionId] = IncomingTransmission(MutableList(header.sequenceCount) { null }, Instant.now().plusSeconds(15))  // Create new incoming connection entry
+                    incoming[header.transmissionId] = IncomingTransmission(header.sequenceCount, Instant.now().plusSeconds(15))  // Create new incoming connection entry
                     return@run incoming[header.transmissionId]
                 } ?: return
 
-                entry.segments[header.sequenceNumber] = content
+                if (entry.sequenceCount != header.sequenceCount || !entry.add(header.sequenceNumber, input, offset, length)) {
+                    Log.debug("Dropping malformed transmission")
+                    incoming.remove(header.transmissionId)
+                    return
+                }
                 entry.expirationTime = Instant.now().plusSeconds(15)
 
-                if (!entry.segments.contains(null)) {
-                    val array = entry.segments.reduceRight { a, b -> a!! + b!! }!!  // Collapse the list of packet contents to the full byte array
-                    val inflated = array.inflate()  // Decompress the transmission
-                    val transmission = registeredTransmissionTypes[header.transmissionType].constructor(inflated, header.transmissionId, sender)  // Deserialize the transmission
-
-                    listenersLock.withLock {
-                        for (listener in listeners) listener(transmission, sender)
-                        incoming.remove(header.transmissionId)
-                    }
+                if (entry.complete) {
+                    receive(entry.inflate(), header, sender)  // Decompress the transmission
                 }
             } catch (e: Exception) { Log.err(e) }
         }
 
-        private data class OutgoingTransmission(val packets: Queue<Packet>, val onFinish: Runnable?, val onError: (() -> Unit)?)
+        /** Deserializes a complete transmission and passes it to the listeners. */
+        private fun receive(inflated: ByteArray, header: Header, sender: Int) {
+            val transmission = registeredTransmissionTypes[header.transmissionType].constructor(inflated, header.transmissionId, sender)  // Deserialize the transmission
+            if (transmission is VersionTransmission && sender != communicationSystem.id) {
+                val known = synchronized(peerCompression) { peerCompression.containsKey(sender).also { peerCompression.put(sender, transmission.compression) } }
+                if (!known) announce() // Let the new peer know about us as well
+            }
+
+            listenersLock.withLock {
+                for (listener in listeners) listener(transmission, sender)
+                incoming.remove(header.transmissionId)
+            }
+        }
+
+        /** Sends one packet of the highest priority type whose turn it is. */
+        private fun sendNext() {
+            val turn = turns.lastOrNull { it.isNotEmpty() } ?: return // Return if there's nothing to send
+            val type = turn.removeFirst()
+            val queue = outgoing[type]
+            val toSend = queue.first()
+
+            val packet = toSend.packets.poll()
+            if (packet != null) {
+                lastSent.reset(0, 0f) // Sending a packet, reset the timer fully
+                try {
+                    val bytes = packet.bytes()
+                    communicationSystem.send(bytes)
+                    stats[type].sent(bytes.size)
+                } catch (e: Exception) {
+                    queue.removeFirst()
+                    toSend.onError?.invoke()
+                    if (queue.isNotEmpty()) turn.addLast(type)
+                    return
+                }
+            }
+
+            if (toSend.packets.isEmpty()) { // Move on to the next transmission of this type
+                queue.removeFirst()
+                stats[type].finished(Time.timeSinceMillis(toSend.queuedAt))
+                toSend.onFinish?.run()
+            }
+            if (queue.isNotEmpty()) turn.addLast(type) // Let the other types of this priority go first
+        }
+
+        /** Tells the other clients which [Compression] modes this one can decode.  Call when joining a server. */
+        fun announce() {
+            if (!communicationSystem.secure) send(VersionTransmission(Compression.VERSION))
+        }
+
+        /** Forgets the modes announced by peers, such as when switching servers. */
+        fun resetPeers() = synchronized(peerCompression) { peerCompression.clear() }
+
+        /** @return the newest [Compression] mode that every other client user in the game announced. */
+        private fun compressionMode(): Int {
+            if (communicationSystem.secure) return Compression.LEGACY
+            synchronized(peerCompression) {
+                if (peerCompression.size == 0) return Compression.LEGACY
+                var mode = Compression.VERSION
+                for (player in Groups.player) {
+                    if (player.isLocal || !player.fooUser) continue
+                    mode = min(mode, peerCompression.get(player.id, Compression.LEGACY))
+                }
+                return mode
+            }
+        }
+
+        private data class OutgoingTransmission(val packets: Queue<Packet>, val onFinish: Runnable?, val onError: (() -> Unit)?, val queuedAt: Long = Time.millis())
 
         /**
          * Splits the transmission into packets and queues them for sending.
@@ -232,14 +378,16 @@ object Packets {
             val usableBytesPerPacket = communicationSystem.MAX_LENGTH - Header.HEADER_SIZE
 
             // Compress the transmission and chunk it so it
-            val batches = transmission.serialize().compress().toList().chunked(usableBytesPerPacket) { it.toByteArray() }
+            val batches = Compression.compress(transmission.serialize(), if (transmission is VersionTransmission) Compression.LEGACY else compressionMode()).toList().chunked(usableBytesPerPacket) { it.toByteArray() }
 
             val packets = LinkedList<Packet>()
             for ((index, content) in batches.withIndex()) {
                 packets.add(Packet(content, batches.size, index, transmission.id, type))
             }
 
-            outgoing.add(OutgoingTransmission(packets, onFinish, onError))
+            val queue = outgoing[type]
+            if (queue.isEmpty()) turns[transmission.priority.ordinal].addLast(type)
+            queue.addLast(OutgoingTransmission(packets, onFinish, onError))
         }
 
         fun removeListener(listener: (Transmission, Int) -> Unit) {
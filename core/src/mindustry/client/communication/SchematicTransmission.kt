@@ -19,6 +19,7 @@ class SchematicTransmission : Transmission {
     }
     override var id: Long = Random.nextLong()
     override val secureOnly = false
+    override val priority = TransmissionPriority.BULK
     var schematic: Schematic? = null
     var bytes: ByteArray
     var senderID: Int = -1
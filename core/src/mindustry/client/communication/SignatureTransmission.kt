@@ -14,6 +14,7 @@ class SignatureTransmission : Transmission {
     val messageId: Short
 
     override val secureOnly = false
+    override val priority = TransmissionPriority.INTERACTIVE
 
     constructor(signature: ByteArray, sn: BigInteger, time: Long, senderId: Int, messageId: Short) {
         this.signature = signature
@@ -12,6 +12,7 @@ class TLSDataTransmission : Transmission {
     val content: ByteArray
 
     override val secureOnly = false
+    override val priority = TransmissionPriority.INTERACTIVE
 
     constructor(source: BigInteger, destination: BigInteger, content: ByteArray) {
         this.source = source
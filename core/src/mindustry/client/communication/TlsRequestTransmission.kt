@@ -12,6 +12,7 @@ class TlsRequestTransmission : Transmission {
     val isResponse get() = sourceSN == BigInteger.ZERO && destinationSN == BigInteger.ZERO
 
     override val secureOnly = false
+    override val priority = TransmissionPriority.INTERACTIVE
 
     constructor(source: BigInteger, destination: BigInteger) {
         this.sourceSN = source
@@ -11,5 +11,20 @@ interface Transmission {
 
     val secureOnly: Boolean
 
+    /** How urgently this should be sent compared to other queued transmissions. */
+    val priority: TransmissionPriority get() = TransmissionPriority.NORMAL
+
     fun serialize(): ByteArray
 }
+
+/**
+ * Queued transmissions of a higher priority are always sent before lower ones.  Within a priority, transmission types take turns sending
+ * a packet, while transmissions of the same type are sent one after another so that they arrive in order.
+ */
+enum class TransmissionPriority {
+    /** Large transfers such as images and schematics */
+    BULK,
+    NORMAL,
+    /** Small transmissions that a player is waiting on, such as chat and commands */
+    INTERACTIVE
+}
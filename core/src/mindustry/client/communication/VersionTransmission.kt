@@ -0,0 +1,20 @@
+package mindustry.client.communication
+
+import mindustry.client.utils.*
+import kotlin.random.*
+
+/**
+ * Announces the newest [Compression] mode this client can decode, so that peers only use it once everyone can read it.
+ * Registered in place of an old [DummyTransmission] slot, so older clients decode it as one and ignore it.
+ */
+class VersionTransmission(val compression: Int) : Transmission {
+
+    override var id = Random.nextLong()
+    override val secureOnly: Boolean = false
+
+    constructor(input: ByteArray, id: Long, @Suppress("UNUSED_PARAMETER") senderID: Int) : this(input.buffer().int) {
+        this.id = id
+    }
+
+    override fun serialize() = compression.toBytes()
+}
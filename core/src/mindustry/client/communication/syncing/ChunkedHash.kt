@@ -0,0 +1,170 @@
+package mindustry.client.communication.syncing
+
+import java.util.zip.*
+import kotlin.math.*
+
+/**
+ * The CRC32 of the low byte of each item's hash code in [list], kept per chunk of [CHUNK_SIZE] items so that a change only rehashes the
+ * chunks it touched.  The chunk CRCs are joined with the zlib crc32_combine algorithm, so [value] equals a CRC over the whole list.
+ * Chunk boundaries are offset by [head], which lets items be added to or removed from the front by only touching the first chunk.
+ * Call [inserted], [removed], [changedFrom] or [cleared] after every change to the list.
+ */
+class ChunkedHash<T>(private val list: List<T>) {
+    companion object {
+        const val CHUNK_SIZE = 64
+
+        /** Multiplies the 32x32 bit matrix [mat] with [vec] over GF(2). */
+        private fun times(mat: IntArray, vec: Int): Int {
+            var v = vec
+            var sum = 0
+            var i = 0
+            while (v != 0) {
+                if (v and 1 != 0) sum = sum xor mat[i]
+                v = v ushr 1
+                i++
+            }
+            return sum
+        }
+
+        private fun square(square: IntArray, mat: IntArray) {
+            for (n in 0 until 32) square[n] = times(mat, mat[n])
+        }
+
+        /** @return the CRC of the concatenation of two inputs, given their CRCs and the length of the second one. */
+        fun combine(crc1: Int, crc2: Int, length2: Int): Int {
+            if (length2 <= 0) return crc1
+            val odd = IntArray(32) // Operator for one zero bit
+            val even = IntArray(32)
+            odd[0] = 0xedb88320.toInt()
+            var row = 1
+            for (n in 1 until 32) {
+                odd[n] = row
+                row = row shl 1
+            }
+            square(even, odd) // Two zero bits
+            square(odd, even) // Four zero bits
+
+            var crc = crc1
+            var length = length2
+            while (true) { // Apply one zero byte per bit of the length, squaring the operator each time
+                square(even, odd)
+                if (length and 1 != 0) crc = times(even, crc)
+                length = length shr 1
+                if (length == 0) break
+                square(odd, even)
+                if (length and 1 != 0) crc = times(odd, crc)
+                length = length shr 1
+                if (length == 0) break
+            }
+            return crc xor crc2
+        }
+
+        /** The operator [combine] applies for a full chunk, so most chunks are joined with a single matrix product. */
+        private val chunkOperator = IntArray(32) { combine(1 shl it, 0, CHUNK_SIZE) }
+
+        /** @return the index of the first item in [chunk], with chunk boundaries offset by [head]. */
+        fun chunkStart(chunk: Int, head: Int) = max(0, chunk * CHUNK_SIZE - head)
+
+        fun chunkCount(size: Int, head: Int) = if (size == 0) 0 else (size - 1 + head) / CHUNK_SIZE + 1
+
+        fun hashRange(list: List<*>, from: Int, to: Int, crc: CRC32): Int {
+            crc.reset()
+            for (i in from until to) crc.update(list[i].hashCode())
+            return crc.value.toInt()
+        }
+
+        /** Hashes every chunk of [list] with the boundaries offset by [head], to compare against another instance. */
+        fun chunkHashes(list: List<*>, head: Int): IntArray {
+            val crc = CRC32()
+            return IntArray(chunkCount(list.size, head)) { hashRange(list, chunkStart(it, head), min(list.size, chunkStart(it + 1, head)), crc) }
+        }
+    }
+
+    /** How many items the first chunk is short of a full one. */
+    var head = 0
+        private set
+    private val chunks = ArrayDeque<Int>()
+    /** Chunks from this index on need to be rehashed. */
+    private var dirtyFrom = 0
+    /** Whether the first chunk needs to be rehashed regardless of [dirtyFrom]. */
+    private var firstDirty = false
+    private val crc = CRC32()
+
+    private fun chunkOf(index: Int) = (index + head) / CHUNK_SIZE
+
+    /** Call after inserting an item at [index]. */
+    fun inserted(index: Int) {
+        if (index == 0 && list.size > 1) { // Grow the first chunk towards the front instead of shifting every boundary
+            if (--head < 0) { // The new item starts a chunk of its own
+                head = CHUNK_SIZE - 1
+                chunks.addFirst(0)
+                dirtyFrom = if (firstDirty) 1 else dirtyFrom + 1
+            }
+            firstDirty = true
+        } else {
+            changedFrom(index)
+        }
+    }
+
+    /** Call after removing the item at [index]. */
+    fun removed(index: Int) {
+        if (list.isEmpty()) {
+            cleared()
+        } else if (index == 0) { // Shrink the first chunk instead of shifting every boundary
+            if (++head == CHUNK_SIZE) {
+                head = 0
+                if (chunks.isNotEmpty()) chunks.removeFirst()
+                if (dirtyFrom > 0) dirtyFrom--
+            } else {
+                firstDirty = true
+            }
+        } else {
+            changedFrom(index)
+        }
+    }
+
+    /** Call after any change to the items at [index] and after it. */
+    fun changedFrom(index: Int) {
+        dirtyFrom = min(dirtyFrom, chunkOf(index))
+    }
+
+    fun cleared() {
+        head = 0
+        chunks.clear()
+        dirtyFrom = 0
+    }
+
+    /** Rehashes everything, for when the list was changed without notifying this. */
+    fun invalidate() {
+        dirtyFrom = 0
+    }
+
+    /** Rehashes the changed chunks. */
+    private fun update() {
+        val count = chunkCount(list.size, head)
+        while (chunks.size > count) chunks.removeLast()
+        while (chunks.size < count) chunks.addLast(0)
+        if (firstDirty && count > 0 && dirtyFrom > 0) chunks[0] = hashChunk(0)
+        for (chunk in dirtyFrom until count) chunks[chunk] = hashChunk(chunk)
+        dirtyFrom = count
+        firstDirty = false
+    }
+
+    private fun hashChunk(chunk: Int) = hashRange(list, chunkStart(chunk, head), min(list.size, chunkStart(chunk + 1, head)), crc)
+
+    /** The hash of every chunk, in order. */
+    fun chunks(): IntArray {
+        update()
+        return chunks.toIntArray()
+    }
+
+    val value: Int get() {
+        update()
+        var value = 0
+        for (chunk in chunks.indices) {
+            val length = min(list.size, chunkStart(chunk + 1, head)) - chunkStart(chunk, head)
+            value = if (length == CHUNK_SIZE) times(chunkOperator, value) xor chunks[chunk] else combine(value, chunks[chunk], length)
+        }
+        return value
+    }
+}
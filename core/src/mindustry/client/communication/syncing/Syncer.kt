@@ -3,18 +3,55 @@ package mindustry.client.communication.syncing
 import mindustry.client.communication.*
 import mindustry.client.utils.*
 import java.io.*
-import java.util.zip.*
+import java.util.BitSet
+import kotlin.math.*
 import kotlin.random.*
 
 /**
  * Keeps [list] synced between two instances.  Use [added] and [removed] to add or remove items.  The two instances must
  * be instantiated with the same [id] for it to work!
+ *
+ * Changes made between two [update]s are batched into as few transmissions as possible, each carrying the hash of the list after it.
+ * The hash is maintained per chunk by [ChunkedHash], so changes only rehash what they touched.  An instance that finds its hash doesn't
+ * match first asks for just the chunks that differ, and only asks for the whole list if that didn't fix it.
  */
 @Suppress("UNCHECKED_CAST")
 class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private val deserializer: (DataInputStream) -> T?, private val comms: Packets.CommunicationClient, private val id: Long = Random.nextLong(), private val mode: Mode) {
-    private val internalList = mutableListOf<T>()
+    private val internalList = ArrayDeque<T>()
     val list: List<T> = internalList  // outside the class, appears as an immutable list
     var isDesynced = false
+    /** Whether the chunks that differ were already requested since the last desync. */
+    private var repairing = false
+
+    private val listHash = ChunkedHash(internalList)
+    /** A view of [internalList] that keeps [listHash] up to date, for applying changes. */
+    private val tracked = object : AbstractMutableList<T>() {
+        override val size get() = internalList.size
+
+        override fun get(index: Int) = internalList[index]
+
+        override fun add(index: Int, element: T) {
+            internalList.add(index, element)
+            listHash.inserted(index)
+        }
+
+        override fun removeAt(index: Int): T {
+            val item = internalList.removeAt(index)
+            listHash.removed(index)
+            return item
+        }
+
+        override fun set(index: Int, element: T): T {
+            val item = internalList.set(index, element)
+            listHash.changedFrom(index)
+            return item
+        }
+
+        override fun clear() {
+            internalList.clear()
+            listHash.cleared()
+        }
+    }
 
     private val queued = mutableListOf<SyncerT<T>>()
 
@@ -24,13 +61,14 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
 
     fun added(items: List<Pair<T, Int>>) {
         if (mode == Mode.READ_ONLY) throw UnsupportedOperationException()
-        items.forEach { internalList.add(it.second, it.first) }
-        val hash = crc(internalList)
-
-        if (queued.lastOrNull() is SyncerT.AddT) {
-            val t = queued.last() as SyncerT.AddT<T>
-            t.newObjects.addAll(items)
-            t.hash = hash
+        items.forEach { tracked.add(it.second, it.first) }
+        val hash = listHash.value
+
+        val last = queued.lastOrNull()
+        if (last is SyncerT.AddT) { // Batch with the previous additions
+            last.newObjects.addAll(items)
+            last.hash = hash
+            return
         }
 
         queued.add(SyncerT.AddT(items.toMutableList(), false, hash))
@@ -38,28 +76,47 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
 
     fun clear() {
         if (mode == Mode.READ_ONLY) throw UnsupportedOperationException()
-        internalList.clear()
-        val hash = crc(internalList)
+        tracked.clear()
+        queued.removeAll { it !is SyncerT.RequestT && it !is SyncerT.ChunkRequestT } // Nothing before a clear matters anymore
 
-        queued.add(SyncerT.AddT(mutableListOf(), true, hash))
+        queued.add(SyncerT.AddT(mutableListOf(), true, listHash.value))
     }
 
     fun removed(indices: List<Int>) {
         if (mode == Mode.READ_ONLY) throw UnsupportedOperationException()
-        indices.forEach { internalList.removeAt(it) }
-        val hash = crc(internalList)
-
-        if (queued.lastOrNull() is SyncerT.RemoveT) {
-            val t = queued.last() as SyncerT.RemoveT<T>
-            t.remove.addAll(indices)
-            t.hash = hash
+        removeIndices(indices)
+        val hash = listHash.value
+
+        val last = queued.lastOrNull()
+        if (last is SyncerT.RemoveT) { // Batch with the previous removals
+            last.remove.addAll(indices)
+            last.hash = hash
+            return
         }
 
         queued.add(SyncerT.RemoveT(indices.toMutableList(), hash))
     }
 
+    /** Removes [indices] one after another.  Descending indices don't shift each other, so those are removed in a single pass. */
+    private fun removeIndices(indices: List<Int>) {
+        if (indices.size < 2 || indices.zipWithNext().any { (a, b) -> a <= b }) {
+            indices.forEach { tracked.removeAt(it) }
+            return
+        }
+
+        val first = indices.last()
+        val removed = BitSet()
+        indices.forEach { removed.set(it) }
+        var write = first
+        for (read in first until internalList.size) {
+            if (!removed[read]) internalList[write++] = internalList[read]
+        }
+        while (internalList.size > write) internalList.removeLast()
+        if (internalList.isEmpty()) listHash.cleared() else listHash.changedFrom(first)
+    }
+
     fun update() {
-        if (isDesynced) queued.removeAll { it !is SyncerT.RequestT<T> }
+        if (isDesynced) queued.removeAll { it !is SyncerT.RequestT<T> && it !is SyncerT.ChunkRequestT<T> }
         for (item in queued) {
             comms.send(SyncerTransmission(id, item, serializer as (Any?, DataOutputStream) -> Unit))
         }
@@ -73,36 +130,37 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
 
             val syncT = transmission.deserialize(serializer, deserializer) ?: return@addListener
 
-            if (syncT is SyncerT.RequestT) {
-                queued.add(SyncerT.AddT(internalList.zip(internalList.indices).toMutableList(), true, crc(internalList)))
-                return@addListener
+            when (syncT) {
+                is SyncerT.RequestT -> {
+                    queued.add(SyncerT.AddT(internalList.zip(internalList.indices).toMutableList(), true, listHash.value))
+                    return@addListener
+                }
+                is SyncerT.ChunkRequestT -> {
+                    queued.add(SyncerT.ReplaceT.diff(internalList, syncT, listHash.value))
+                    return@addListener
+                }
+                else -> {}
             }
             if (mode == Mode.WRITE_ONLY) return@addListener
 
-            if (isDesynced && (syncT as? SyncerT.AddT)?.clear == true) {
+            if (isDesynced && ((syncT as? SyncerT.AddT)?.clear == true || syncT is SyncerT.ReplaceT)) {
                 isDesynced = false
             }
 
-            syncT.apply(internalList)
+            if (syncT is SyncerT.RemoveT) removeIndices(syncT.remove) else syncT.apply(tracked)
 
-            val hash = crc(internalList)
-            if (hash != syncT.hash) {
+            if (listHash.value != syncT.hash) {
+                listHash.invalidate() // In case the list was changed behind our back
+                if (listHash.value == syncT.hash) return@addListener
                 isDesynced = true
-                queued.add(SyncerT.RequestT())
+                queued.add(if (repairing) SyncerT.RequestT() else SyncerT.ChunkRequestT(internalList.size, listHash.head, listHash.chunks()))
+                repairing = true
+            } else if (!isDesynced) {
+                repairing = false
             }
         }
     }
 
-    private val crc = CRC32()
-
-    private fun crc(items: List<T>): Int {
-        crc.reset()
-        items.forEach {
-            crc.update(it.hashCode())
-        }
-        return crc.value.toInt()
-    }
-
     class SyncerTransmission : Transmission {
 
         override var id = Random.nextLong()
@@ -151,6 +209,23 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
                     SyncerT.RemoveT(lst, hash)
                 }
                 2 -> SyncerT.RequestT()
+                3 -> {
+                    val size = inp.readInt()
+                    val head = inp.readInt()
+                    SyncerT.ChunkRequestT(size, head, IntArray(inp.readInt()) { inp.readInt() })
+                }
+                4 -> {
+                    val size = inp.readInt()
+                    val head = inp.readInt()
+                    val chunks = mutableListOf<Pair<Int, List<T>>>()
+
+                    repeat(inp.readInt()) {
+                        val chunk = inp.readInt()
+                        chunks.add(chunk to List(inp.readInt()) { deserializer(inp) ?: return null })
+                    }
+
+                    SyncerT.ReplaceT(size, head, chunks, hash)
+                }
                 else -> null
             }
         }
@@ -211,6 +286,79 @@ class Syncer<T>(private val serializer: (T, DataOutputStream) -> Unit, private v
             }
         }
 
+        /** Asks for the chunks that differ from [chunks], hashed with the boundaries offset by [head].  Older clients ignore this. */
+        class ChunkRequestT<T>(val size: Int, val head: Int, val chunks: IntArray) : SyncerT<T> {
+            override val hash = -1
+            override val typeByte = 3.toByte()
+
+            override fun apply(list: MutableList<T>) {
+                return
+            }
+
+            override fun serialize(serializer: (T, DataOutputStream) -> Unit): ByteArray {
+                val out = ByteArrayOutputStream()
+                val data = DataOutputStream(out)
+
+                data.writeInt(size)
+                data.writeInt(head)
+                data.writeInt(chunks.size)
+                for (chunk in chunks) {
+                    data.writeInt(chunk)
+                }
+                data.flush()
+                return out.toByteArray()
+            }
+        }
+
+        /** Resizes the list to [size] and overwrites the given chunks, in ascending order, in reply to a [ChunkRequestT]. */
+        class ReplaceT<T>(val size: Int, val head: Int, val chunks: List<Pair<Int, List<T>>>, override val hash: Int) : SyncerT<T> {
+            override val typeByte = 4.toByte()
+
+            companion object {
+                /** @return the chunks of [list] that differ from the ones in [request]. */
+                fun <T> diff(list: List<T>, request: ChunkRequestT<*>, hash: Int): ReplaceT<T> {
+                    val ours = ChunkedHash.chunkHashes(list, request.head)
+                    val lastChunk = ours.lastIndex
+                    val chunks = mutableListOf<Pair<Int, List<T>>>()
+                    for (chunk in ours.indices) {
+                        if (chunk < request.chunks.size && ours[chunk] == request.chunks[chunk] && (chunk != lastChunk || list.size == request.size)) continue
+                        val start = ChunkedHash.chunkStart(chunk, request.head)
+                        chunks.add(chunk to list.subList(start, min(list.size, ChunkedHash.chunkStart(chunk + 1, request.head))).toList())
+                    }
+                    return ReplaceT(list.size, request.head, chunks, hash)
+                }
+            }
+
+            override fun apply(list: MutableList<T>) {
+                while (list.size > size) list.removeAt(list.lastIndex)
+                for ((chunk, items) in chunks) {
+                    var i = ChunkedHash.chunkStart(chunk, head)
+                    for (item in items) {
+                        if (i < list.size) list[i] = item else list.add(item)
+                        i++
+                    }
+                }
+            }
+
+            override fun serialize(serializer: (T, DataOutputStream) -> Unit): ByteArray {
+                val out = ByteArrayOutputStream()
+                val data = DataOutputStream(out)
+
+                data.writeInt(size)
+                data.writeInt(head)
+                data.writeInt(chunks.size)
+                for ((chunk, items) in chunks) {
+                    data.writeInt(chunk)
+                    data.writeInt(items.size)
+                    for (item in items) {
+                        serializer(item, data)
+                    }
+                }
+                data.flush()
+                return out.toByteArray()
+            }
+        }
+
         class RequestT<T> : SyncerT<T> {
             override val hash = -1
             override val typeByte = 2.toByte()
@@ -47,7 +47,7 @@ public class TileInfoFragment extends Table {
             var logs = record.lastLogs(7);
 
             builder.setLength(0);
-            for (var item : logs) builder.append(item.toShortString()).append(" (").append(UI.formatMinutesFromMillis(Time.timeSinceMillis(item.getTime().toEpochMilli()))).append(")\n");
+            for (var item : logs) builder.append(item.toShortString()).append(" (").append(UI.formatMinutesFromMillis(Time.timeSinceMillis(item.getTimeMillis()))).append(")\n");
             label.setText(builder.length() == 0 ? "" : builder.substring(0, builder.length() - 1)); // This is awful
         });
     }
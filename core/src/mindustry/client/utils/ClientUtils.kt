@@ -104,19 +104,123 @@ fun Float.ceil() = ceil(this).toInt()
 
 fun ByteArray.buffer(): ByteBuffer = ByteBuffer.wrap(this)
 
+/**
+ * Zlib compression of transmissions.  [DICTIONARY] streams are primed with a preset dictionary of typical build plan and syncer payloads,
+ * which saves most of the overhead on the small transmissions that dominate traffic.  Zlib marks such streams and names the dictionary by
+ * its checksum, so [inflate] handles both modes without any framing of its own.
+ */
 object Compression {
-    fun compress(input: ByteArray): ByteArray {
-        val deflater = DeflaterInputStream(input.inputStream())
-        val output = deflater.readBytes()
-        deflater.close()
-        return output
+    /** Plain zlib, readable by every client. */
+    const val LEGACY = 0
+    /** Zlib with [dictionary] preset.  Only used once every peer announced it with a [VersionTransmission]. */
+    const val DICTIONARY = 1
+    /** The newest mode this client can decode. */
+    const val VERSION = DICTIONARY
+
+    private val deflaters = ThreadLocal.withInitial { Deflater() }
+    private val inflaters = ThreadLocal.withInitial { Inflater() }
+    private val buffers = ThreadLocal.withInitial { ByteArray(4096) }
+
+    /** Changing a single byte of this breaks compatibility, add a new mode instead. */
+    private val dictionary = buildDictionary()
+    private val dictionaryId = Adler32().run { update(dictionary); value.toInt() }
+
+    fun compress(input: ByteArray, mode: Int = LEGACY): ByteArray {
+        val deflater = deflaters.get()
+        val buffer = buffers.get()
+        val output = ByteArrayOutputStream(input.size / 2 + 16)
+        deflater.reset()
+        if (mode >= DICTIONARY) deflater.setDictionary(dictionary)
+        deflater.setInput(input)
+        deflater.finish()
+        while (!deflater.finished()) output.write(buffer, 0, deflater.deflate(buffer))
+        return output.toByteArray()
     }
 
-    fun inflate(input: ByteArray): ByteArray {
-        val inflater = InflaterInputStream(input.inputStream())
-        val output = inflater.readBytes()
-        inflater.close()
-        return output
+    fun inflate(input: ByteArray): ByteArray = inflate(input, 0, input.size)
+
+    @Throws(ZipException::class)
+    fun inflate(input: ByteArray, offset: Int, length: Int): ByteArray {
+        val inflater = inflaters.get()
+        val buffer = buffers.get()
+        val output = ByteArrayOutputStream(length * 2)
+        inflater.reset()
+        inflater.setInput(input, offset, length)
+        while (!inflater.finished()) {
+            val count = inflater.inflate(buffer)
+            if (count > 0) {
+                output.write(buffer, 0, count)
+            } else if (inflater.needsDictionary()) {
+                if (inflater.adler != dictionaryId) throw ZipException("Unknown compression dictionary")
+                inflater.setDictionary(dictionary)
+            } else if (inflater.needsInput()) {
+                throw ZipException("Unexpected end of compressed input")
+            }
+        }
+        return output.toByteArray()
+    }
+
+    /**
+     * Builds the preset dictionary from synthetic payloads in the wire formats of [BuildQueueTransmission] and [mindustry.client.communication.syncing.Syncer.SyncerTransmission].
+     * Deflate finds matches closer to the end of the dictionary more cheaply, so the most common patterns are written last.
+     */
+    private fun buildDictionary(): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        val out = DataOutputStream(bytes)
+
+        // Syncer additions: type byte, hash, count, then a plan and its index each
+        out.writeByte(0)
+        out.writeInt(0)
+        out.writeInt(16)
+        for (i in 0 until 16) {
+            out.writeByte(0)
+            out.writeInt(Point2.pack(100 + i, 100))
+            out.writeShort(i + 1)
+            out.writeByte(i % 4)
+            out.writeByte(1)
+            out.writeByte(0)
+            out.writeInt(i)
+        }
+        out.writeBoolean(false)
+
+        // Syncer removals and requests
+        out.writeByte(1)
+        out.writeInt(0)
+        out.writeInt(8)
+        for (i in 0 until 8) out.writeInt(i)
+        out.writeByte(2)
+
+        // Build queues: breaking plans, then rows of placed blocks with no config and with the common config types
+        out.writeShort(64)
+        for (i in 0 until 16) {
+            out.writeByte(1)
+            out.writeInt(Point2.pack(i, 0))
+        }
+        for (config in 0..2) {
+            for (i in 0 until 16) {
+                out.writeByte(0)
+                out.writeInt(Point2.pack(i, config))
+                out.writeShort(i)
+                out.writeByte(config)
+                out.writeByte(1)
+                when (config) {
+                    0 -> out.writeByte(0)
+                    1 -> { out.writeByte(5); out.writeByte(0); out.writeShort(i) } // Content, usually an item
+                    else -> { out.writeByte(1); out.writeInt(Point2.pack(i + 1, config)) } // Linked position
+                }
+            }
+        }
+        for (i in 0 until 64) {
+            out.writeByte(0)
+            out.writeInt(Point2.pack(i % 8, i / 8))
+            out.writeShort(i % 4)
+            out.writeByte(i % 4)
+            out.writeByte(1)
+            out.writeByte(0)
+        }
+
+        out.flush()
+        return bytes.toByteArray()
     }
 }
 
@@ -483,6 +483,7 @@ public class Logic implements ApplicationListener{
                 Groups.weather.each(w -> state.envAttrs.add(w.weather.attrs, w.opacity));
 
                 Groups.update();
+                logicScheduler.update();
                 Client.INSTANCE.update();
             }
 
@@ -27,6 +27,7 @@ import mindustry.world.*;
 import java.io.*;
 import java.net.*;
 import java.nio.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 import static arc.util.Log.*;
@@ -39,7 +40,6 @@ public class NetServer implements ApplicationListener{
     private static final float blockSyncTime = 60 * 6, healthSyncTime = 30;
     private static final FloatBuffer fbuffer = FloatBuffer.allocate(20);
     private static final Writes dataWrites = new Writes(null);
-    private static final IntSeq hiddenIds = new IntSeq();
     private static final IntSeq healthSeq = new IntSeq(maxSnapshotSize / 4 + 1);
     private static final Vec2 vector = new Vec2();
     /** If a player goes away of their server-side coordinates by this distance, they get teleported back. */
@@ -115,11 +115,29 @@ public class NetServer implements ApplicationListener{
     private ReusableByteOutStream syncStream = new ReusableByteOutStream();
     /** Data stream for writing player sync data to. */
     private DataOutputStream dataStream = new DataOutputStream(syncStream);
+    /** Writes entity snapshots on the main thread. */
+    private SnapshotWriter snapshotWriter = new SnapshotWriter();
+    /** Writes entity snapshots on the snapshot threads; one per player that is synced in the same update. */
+    private Seq<SnapshotWriter> snapshotWriters = new Seq<>();
+    private Seq<Player> syncPlayers = new Seq<>();
+    private Seq<Future<?>> syncFutures = new Seq<>();
+    private @Nullable ExecutorService snapshotExecutor;
+    private int snapshotThreads;
+
+    /** Maps building positions to the checksum of the data that was last sent for them in a block snapshot. */
+    private IntIntMap blockSyncHashes = new IntIntMap();
+    /** Stream for writing a single building's data to, before it is added to the block snapshot. */
+    private ReusableByteOutStream blockStream = new ReusableByteOutStream();
+    private Writes blockWrites = new Writes(new DataOutputStream(blockStream));
+    private CRC32 blockCrc = new CRC32();
+    private int blockSnapshotsSent;
     /** Packet handlers for custom types of messages. */
     private ObjectMap<String, Seq<Cons2<Player, String>>> customPacketHandlers = new ObjectMap<>();
 
     public NetServer(){
 
+        Events.on(WorldLoadEvent.class, e -> blockSyncHashes.clear());
+
         net.handleServer(Connect.class, (con, connect) -> {
             Events.fire(new ConnectionEvent(con));
 
@@ -201,6 +219,7 @@ public class NetServer implements ApplicationListener{
                 info.adminUsid = packet.usid;
                 info.lastName = packet.name;
                 info.id = packet.uuid;
+                admins.index(info);
                 admins.save();
                 Call.infoMessage(con, "You are not whitelisted here.");
                 info("&lcDo &lywhitelist-add @&lc to whitelist the player &lb'@'", packet.uuid, packet.name);
@@ -888,14 +907,39 @@ public class NetServer implements ApplicationListener{
     public void writeBlockSnapshots() throws IOException{
         syncStream.reset();
 
+        int refreshInterval = Math.max(Config.blockSyncRefreshInterval.num(), 1);
+        blockSnapshotsSent++;
+
         short sent = 0;
         for(Building entity : Groups.build){
             if(!entity.block.sync) continue;
-            sent++;
 
-            dataStream.writeInt(entity.pos());
-            dataStream.writeShort(entity.block.id);
-            entity.writeAll(Writes.get(dataStream));
+            if(refreshInterval > 1){
+                blockStream.reset();
+                entity.writeAll(blockWrites);
+
+                blockCrc.reset();
+                blockCrc.update(entity.block.id);
+                blockCrc.update(blockStream.getBytes(), 0, blockStream.size());
+                int hash = (int)blockCrc.getValue();
+
+                //unchanged since the last broadcast; everything is still refreshed once per interval (staggered by position) for consistency
+                if(blockSyncHashes.containsKey(entity.pos()) && blockSyncHashes.get(entity.pos()) == hash && (blockSnapshotsSent + entity.pos()) % refreshInterval != 0){
+                    continue;
+                }
+
+                blockSyncHashes.put(entity.pos(), hash);
+
+                dataStream.writeInt(entity.pos());
+                dataStream.writeShort(entity.block.id);
+                dataStream.write(blockStream.getBytes(), 0, blockStream.size());
+            }else{
+                dataStream.writeInt(entity.pos());
+                dataStream.writeShort(entity.block.id);
+                entity.writeAll(Writes.get(dataStream));
+            }
+
+            sent++;
 
             if(syncStream.size() > maxSnapshotSize){
                 dataStream.close();
@@ -912,6 +956,14 @@ public class NetServer implements ApplicationListener{
     }
 
     public void writeEntitySnapshot(Player player) throws IOException{
+        writeStateSnapshot(player);
+        snapshotWriter.prepare(player);
+        snapshotWriter.write(player);
+        snapshotWriter.send(player);
+    }
+
+    /** Sends the basic state data and core items to a player. Main thread only. */
+    public void writeStateSnapshot(Player player) throws IOException{
         byte tps = (byte)Math.min(Core.graphics.getFramesPerSecond(), 255);
         syncStream.reset();
         int activeTeams = (byte)state.teams.present.count(t -> t.cores.size > 0);
@@ -934,43 +986,6 @@ public class NetServer implements ApplicationListener{
         universe.seconds(), tps, GlobalVars.rand.seed0, GlobalVars.rand.seed1, syncStream.toByteArray());
 
         syncStream.reset();
-
-        hiddenIds.clear();
-        int sent = 0;
-
-        for(Syncc entity : Groups.sync){
-            //TODO write to special list
-            if(entity.isSyncHidden(player)){
-                hiddenIds.add(entity.id());
-                continue;
-            }
-
-            //write all entities now
-            dataStream.writeInt(entity.id()); //write id
-            dataStream.writeByte(entity.classId() & 0xFF); //write type ID
-            entity.writeSync(Writes.get(dataStream)); //write entity
-
-            sent++;
-
-            if(syncStream.size() > maxSnapshotSize){
-                dataStream.close();
-                Call.entitySnapshot(player.con, (short)sent, syncStream.toByteArray());
-                sent = 0;
-                syncStream.reset();
-            }
-        }
-
-        if(sent > 0){
-            dataStream.close();
-
-            Call.entitySnapshot(player.con, (short)sent, syncStream.toByteArray());
-        }
-
-        if(hiddenIds.size > 0){
-            Call.hiddenSnapshot(player.con, hiddenIds);
-        }
-
-        player.con.snapshotsSent++;
     }
 
     public String fixName(String name){
@@ -1025,6 +1040,15 @@ public class NetServer implements ApplicationListener{
     void sync(){
         try{
             int interval = Config.snapshotInterval.num();
+            boolean parallel = Config.snapshotThreads.num() > 1;
+            syncPlayers.clear();
+
+            //don't keep idle threads around once writing in parallel is turned off
+            if(!parallel && snapshotExecutor != null){
+                snapshotExecutor.shutdown();
+                snapshotExecutor = null;
+            }
+
             Groups.player.each(p -> !p.isLocal(), player -> {
                 if(player.con == null || !player.con.isConnected()){
                     onDisconnect(player, "disappeared");
@@ -1037,6 +1061,11 @@ public class NetServer implements ApplicationListener{
 
                 connection.syncTime = Time.millis();
 
+                if(parallel){
+                    syncPlayers.add(player);
+                    return;
+                }
+
                 try{
                     writeEntitySnapshot(player);
                 }catch(IOException e){
@@ -1044,6 +1073,10 @@ public class NetServer implements ApplicationListener{
                 }
             });
 
+            if(syncPlayers.size > 0){
+                writeEntitySnapshotsParallel();
+            }
+
             if(Groups.player.size() > 0 && Core.settings.getBool("blocksync") && timer.get(timerBlockSync, blockSyncTime)){
                 writeBlockSnapshots();
             }
@@ -1080,6 +1113,210 @@ public class NetServer implements ApplicationListener{
         }
     }
 
+    /**
+     * Writes the entity snapshots of all players in {@link #syncPlayers} on the snapshot threads, then sends them.
+     * The main thread waits for all writers to finish, so the game state can't change while they read it.
+     */
+    private void writeEntitySnapshotsParallel() throws IOException{
+        int threads = Config.snapshotThreads.num();
+        if(snapshotExecutor == null || snapshotThreads != threads){
+            if(snapshotExecutor != null) snapshotExecutor.shutdown();
+
+            snapshotThreads = threads;
+            snapshotExecutor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "Snapshot-Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        while(snapshotWriters.size < syncPlayers.size){
+            snapshotWriters.add(new SnapshotWriter());
+        }
+
+        //state snapshots are cheap and read a lot of global state, write them here
+        for(int i = 0; i < syncPlayers.size; i++){
+            writeStateSnapshot(syncPlayers.get(i));
+            snapshotWriters.get(i).prepare(syncPlayers.get(i));
+        }
+
+        for(int i = 0; i < syncPlayers.size; i++){
+            var player = syncPlayers.get(i);
+            var writer = snapshotWriters.get(i);
+            syncFutures.add(snapshotExecutor.submit(() -> {
+                writer.write(player);
+                return null;
+            }));
+        }
+
+        for(int i = 0; i < syncFutures.size; i++){
+            try{
+                syncFutures.get(i).get();
+                snapshotWriters.get(i).send(syncPlayers.get(i));
+            }catch(InterruptedException | ExecutionException e){
+                Log.err(e);
+                snapshotWriters.get(i).clear();
+            }
+        }
+
+        syncFutures.clear();
+        syncPlayers.clear();
+    }
+
+    /**
+     * Writes the entity snapshots of a single player, keeping the packets until they are sent.
+     * Writing only reads the game state and the player's connection, so writers may run on different threads as long as each has its own instance.
+     */
+    static class SnapshotWriter{
+        final ReusableByteOutStream syncStream = new ReusableByteOutStream();
+        final DataOutputStream dataStream = new DataOutputStream(syncStream);
+        final Writes writes = new Writes(dataStream);
+        /** Stream for writing a single entity's sync data to, before it is added to the snapshot. */
+        final ReusableByteOutStream entityStream = new ReusableByteOutStream();
+        final Writes entityWrites = new Writes(new DataOutputStream(entityStream));
+        final IntSeq hiddenIds = new IntSeq();
+        final IntSet interestIds = new IntSet();
+        final CRC32 crc = new CRC32();
+
+        /** Written snapshot packets and their entity counts, waiting to be sent. */
+        final Seq<byte[]> packets = new Seq<>();
+        final IntSeq packetSizes = new IntSeq();
+
+        /** Collects the units in the player's area of interest. The unit quadtree is not thread-safe, so this runs on the main thread. */
+        void prepare(Player player){
+            var con = player.con;
+            float range = Config.interestRange.num() * tilesize;
+            interestIds.clear();
+
+            if(range >= 0){
+                Groups.unit.intersect(con.viewX - con.viewWidth / 2f - range, con.viewY - con.viewHeight / 2f - range, con.viewWidth + range * 2f, con.viewHeight + range * 2f, u -> interestIds.add(u.id()));
+                if(player.unit() != null) interestIds.add(player.unit().id());
+            }
+        }
+
+        void write(Player player) throws IOException{
+            syncStream.reset();
+            hiddenIds.clear();
+            int sent = 0;
+
+            var con = player.con;
+            int interestInterval = Math.max(Config.interestInterval.num(), 1);
+            boolean useInterest = Config.interestRange.num() >= 0;
+            int keyframeInterval = Math.max(Config.snapshotKeyframeInterval.num(), 1);
+
+            //forget about entities that don't exist anymore
+            if(con.snapshotsSent % (keyframeInterval * 10) == 0){
+                var keys = con.syncHashes.keys();
+                while(keys.hasNext){
+                    if(Groups.sync.getByID(keys.next()) == null){
+                        keys.remove();
+                    }
+                }
+
+                keys = con.syncSentAt.keys();
+                while(keys.hasNext){
+                    int id = keys.next();
+                    if(Groups.sync.getByID(id) == null){
+                        keys.remove();
+                        con.syncResend.remove(id);
+                    }
+                }
+            }
+
+            //indexed loop; the group iterator is shared between threads
+            for(int i = 0; i < Groups.sync.size(); i++){
+                Syncc entity = Groups.sync.index(i);
+
+                //TODO write to special list
+                if(entity.isSyncHidden(player)){
+                    hiddenIds.add(entity.id());
+                    continue;
+                }
+
+                int id = entity.id();
+                boolean staggered = useInterest && entity instanceof Unitc && !interestIds.contains(id);
+                boolean resend = con.syncResend.remove(id);
+
+                //distant units are staggered by ID, so each one is still sent once per interval; units that just left the area are sent one last time
+                if(staggered && !resend && !con.interestIds.contains(id) && (con.snapshotsSent + id) % interestInterval != 0){
+                    continue;
+                }
+
+                if(keyframeInterval > 1){
+                    entityStream.reset();
+                    entity.writeSync(entityWrites);
+
+                    crc.reset();
+                    crc.update(entityStream.getBytes(), 0, entityStream.size());
+                    int hash = (int)crc.getValue();
+
+                    //the client already has this exact state; it is still resent every keyframe (staggered by ID) in case a snapshot was lost
+                    if(!resend && con.syncHashes.containsKey(entity.id()) && con.syncHashes.get(entity.id()) == hash && (con.snapshotsSent + entity.id()) % keyframeInterval != 0){
+                        continue;
+                    }
+
+                    con.syncHashes.put(entity.id(), hash);
+
+                    dataStream.writeInt(entity.id()); //write id
+                    dataStream.writeByte(entity.classId() & 0xFF); //write type ID
+                    dataStream.write(entityStream.getBytes(), 0, entityStream.size()); //write entity
+                }else{
+                    //write all entities now
+                    dataStream.writeInt(entity.id()); //write id
+                    dataStream.writeByte(entity.classId() & 0xFF); //write type ID
+                    entity.writeSync(writes); //write entity
+                }
+
+                //clients interpolate over the time since the last update, which is long after a gap, so the next snapshot has to follow right away.
+                //staggered units are always sent with gaps, so they interpolate evenly without this
+                if(!staggered && con.syncSentAt.get(id, -2) != con.snapshotsSent - 1){
+                    con.syncResend.add(id);
+                }
+                con.syncSentAt.put(id, con.snapshotsSent);
+
+                sent++;
+
+                if(syncStream.size() > maxSnapshotSize){
+                    dataStream.close();
+                    packets.add(syncStream.toByteArray());
+                    packetSizes.add(sent);
+                    sent = 0;
+                    syncStream.reset();
+                }
+            }
+
+            if(sent > 0){
+                dataStream.close();
+                packets.add(syncStream.toByteArray());
+                packetSizes.add(sent);
+            }
+
+            if(useInterest){
+                con.interestIds.clear();
+                con.interestIds.addAll(interestIds);
+            }
+        }
+
+        /** Sends everything written for this player. Main thread only. */
+        void send(Player player){
+            for(int i = 0; i < packets.size; i++){
+                Call.entitySnapshot(player.con, (short)packetSizes.get(i), packets.get(i));
+            }
+
+            if(hiddenIds.size > 0){
+                Call.hiddenSnapshot(player.con, hiddenIds);
+            }
+
+            clear();
+            player.con.snapshotsSent++;
+        }
+
+        void clear(){
+            packets.clear();
+            packetSizes.clear();
+        }
+    }
+
     public class VoteSession{
         Player target;
         ObjectIntMap<String> voted = new ObjectIntMap<>();
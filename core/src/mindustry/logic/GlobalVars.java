@@ -28,6 +28,8 @@ public class GlobalVars{
 
     //non-constants that depend on state
     private static int varTime, varTick, varSecond, varMinute, varWave, varWaveTime;
+    /** IDs of the variables that change while the game runs. */
+    private final IntSet dynamic = new IntSet();
 
     private ObjectIntMap<String> namesToIds = new ObjectIntMap<>();
     private Seq<Var> vars = new Seq<>(Var.class);
@@ -49,12 +51,12 @@ public class GlobalVars{
         put("@radToDeg", Mathf.radDeg);
 
         //time
-        varTime = put("@time", 0);
-        varTick = put("@tick", 0);
-        varSecond = put("@second", 0);
-        varMinute = put("@minute", 0);
-        varWave = put("@waveNumber", 0);
-        varWaveTime = put("@waveTime", 0);
+        varTime = putDynamic("@time", 0);
+        varTick = putDynamic("@tick", 0);
+        varSecond = putDynamic("@second", 0);
+        varMinute = putDynamic("@minute", 0);
+        varWave = putDynamic("@waveNumber", 0);
+        varWaveTime = putDynamic("@waveTime", 0);
 
         //special enums
         put("@ctrlProcessor", ctrlProcessor);
@@ -171,11 +173,32 @@ public class GlobalVars{
         return vars.items[id];
     }
 
-    /** Sets a global variable by an ID returned from put(). */
+    /** Sets a global variable by an ID returned from putDynamic(). Other globals may already be copied into processors, so they can't be set. */
     public void set(int id, double value){
+        if(!dynamic.contains(id)){
+            Log.err("Failed to set global logic variable '@', as it was not added with putDynamic().", get(id).name);
+            return;
+        }
         get(id).numval = value;
     }
 
+    /** @return whether a global variable keeps its value, so processors can copy it when they are assembled. */
+    public boolean isConstant(int id){
+        return !dynamic.contains(id);
+    }
+
+    /** Adds a variable by name that can be changed with set() later. Processors read it from here instead of copying it. */
+    public int putDynamic(String name, Object value){
+        if(namesToIds.containsKey(name)){ //an existing constant may already be copied into processors
+            Log.debug("Failed to add global logic variable '@', as it already exists.", name);
+            return namesToIds.get(name, -1);
+        }
+
+        int index = put(name, value);
+        dynamic.add(index);
+        return index;
+    }
+
     /** Adds a constant value by name. */
     public int put(String name, Object value){
         int existingIdx = namesToIds.get(name, -1);
@@ -11,6 +11,14 @@ import mindustry.logic.LExecutor.*;
 public class LAssembler{
     public static ObjectMap<String, Func<String[], LStatement>> customParsers = new ObjectMap<>();
     public static final int maxTokenLength = 500;
+    /** How many parsed programs are kept in {@link #parsed}. */
+    public static final int maxParsedPrograms = 64;
+
+    /**
+     * Parsed statements by source and privilege, so that identical processors (common with copied schematics) only parse their code once.
+     * Building statements does not modify them, so they are shared between assemblers.
+     */
+    private static final ObjectMap<String, Seq<LStatement>> parsed = new ObjectMap<>(), parsedPrivileged = new ObjectMap<>();
 
     private static final int invalidNum = Integer.MIN_VALUE;
 
@@ -32,7 +40,7 @@ public class LAssembler{
     public static LAssembler assemble(String data, boolean privileged){
         LAssembler asm = new LAssembler();
 
-        Seq<LStatement> st = read(data, privileged);
+        Seq<LStatement> st = parse(data, privileged);
 
         asm.instructions = st.map(l -> l.build(asm)).retainAll(l -> l != null).toArray(LInstruction.class);
         return asm;
@@ -48,6 +56,21 @@ public class LAssembler{
         return out.toString();
     }
 
+    /** @return the statements of a program, parsed once and shared with every other assembly of the same source. Do not modify them. */
+    static Seq<LStatement> parse(String data, boolean privileged){
+        if(data == null || data.isEmpty()) return new Seq<>();
+
+        ObjectMap<String, Seq<LStatement>> cache = privileged ? parsedPrivileged : parsed;
+        synchronized(cache){
+            Seq<LStatement> result = cache.get(data);
+            if(result == null){
+                if(cache.size >= maxParsedPrograms) cache.clear();
+                cache.put(data, result = read(data, privileged));
+            }
+            return result;
+        }
+    }
+
     /** Parses a sequence of statements from a string. */
     public static Seq<LStatement> read(String text, boolean privileged){
         //don't waste time parsing null/empty text
@@ -60,7 +83,12 @@ public class LAssembler{
     public int var(String symbol){
         int constId = Vars.logicVars.get(symbol);
         if(constId > 0){
-            //global constants are *negated* and stored separately
+            //global constants are copied into the processor, so reading them doesn't need to leave its register file
+            if(Vars.logicVars.isConstant(constId)){
+                Var global = Vars.logicVars.get(constId);
+                return putConst("___" + symbol, global.isobj ? global.objval : global.numval).id;
+            }
+            //global variables that change are *negated* and stored separately
             return -constId;
         }
 
@@ -47,11 +47,20 @@ public class LExecutor{
     maxTextBuffer = 400;
 
     public LInstruction[] instructions = {};
+    /**
+     * The register file: variable values indexed by their ID, where a variable holds {@link #objvals} if {@link #isobjs} is set,
+     * otherwise {@link #numvals}. Global constants are copied in by the assembler, so only the global variables that change have negative IDs.
+     */
+    public double[] numvals = {};
+    public Object[] objvals = {};
+    public boolean[] isobjs = {}, constants = {};
+    /** Names and metadata of the variables. Their values are only up to date after {@link #syncVars()} or {@link #var(int)}. */
     public Var[] vars = {};
-    public Var counter;
     public int[] binds;
 
     public int iptIndex = -1;
+    /** Instructions run by fused instructions beyond the first one, to be charged against the instruction budget by the caller of {@link #runOnce()}. */
+    public int extraInstructions;
     public LongSeq graphicsBuffer = new LongSeq();
     public StringBuilder textBuffer = new StringBuilder();
     public Building[] links = {};
@@ -79,20 +88,89 @@ public class LExecutor{
 
     /** Runs a single instruction. */
     public void runOnce(){
+        double[] numvals = this.numvals;
+
         //reset to start
-        if(counter.numval >= instructions.length || counter.numval < 0){
-            counter.numval = 0;
+        if(numvals[varCounter] >= instructions.length || numvals[varCounter] < 0){
+            numvals[varCounter] = 0;
         }
 
-        if(counter.numval < instructions.length){
-            instructions[(int)(counter.numval++)].run(this);
+        if(numvals[varCounter] < instructions.length){
+            instructions[(int)(numvals[varCounter]++)].run(this);
         }
     }
 
+    /**
+     * Runs instructions until the budget is used up, keeping the program in locals between them.
+     * @return how many instructions were run, which may exceed the budget by one if the last instruction was fused.
+     */
+    public int run(int budget){
+        LInstruction[] instructions = this.instructions;
+        double[] numvals = this.numvals;
+        int length = instructions.length, ran = 0;
+
+        while(ran < budget){
+            double counter = numvals[varCounter];
+
+            //reset to start
+            if(counter >= length || counter < 0){
+                counter = 0;
+            }
+
+            if(counter < length){
+                numvals[varCounter] = counter + 1;
+                instructions[(int)counter].run(this);
+            }
+
+            ran += 1 + extraInstructions;
+            extraInstructions = 0;
+        }
+
+        return ran;
+    }
+
+    /**
+     * Like {@link #run(int)}, but stops before the first instruction that isn't {@link LInstruction#pure(LExecutor) pure}.
+     * Processors may run this in parallel, as long as nothing else changes the world meanwhile.
+     * @return how many instructions were run.
+     */
+    public int runPure(int budget){
+        LInstruction[] instructions = this.instructions;
+        double[] numvals = this.numvals;
+        int length = instructions.length, ran = 0;
+
+        while(ran < budget){
+            double counter = numvals[varCounter];
+
+            //reset to start
+            if(counter >= length || counter < 0){
+                counter = 0;
+            }
+
+            if(counter < length){
+                LInstruction instruction = instructions[(int)counter];
+                if(!instruction.pure(this)) break;
+
+                numvals[varCounter] = counter + 1;
+                instruction.run(this);
+            }
+
+            ran += 1 + extraInstructions;
+            extraInstructions = 0;
+        }
+
+        return ran;
+    }
+
     /** Loads with a specified assembler. Resets all variables. */
     public void load(LAssembler builder){
-        vars = new Var[builder.vars.size];
-        instructions = builder.instructions;
+        int size = builder.vars.size;
+        vars = new Var[size];
+        numvals = new double[size];
+        objvals = new Object[size];
+        isobjs = new boolean[size];
+        constants = new boolean[size];
+        instructions = LOptimizer.optimize(builder);
         iptIndex = -1;
 
         builder.vars.each((name, var) -> {
@@ -102,18 +180,32 @@ public class LExecutor{
                 iptIndex = var.id;
             }
 
-            dest.constant = var.constant;
+            dest.constant = constants[var.id] = var.constant;
 
             if(var.value instanceof Number number){
-                dest.isobj = false;
-                dest.numval = number.doubleValue();
+                numvals[var.id] = number.doubleValue();
             }else{
-                dest.isobj = true;
-                dest.objval = var.value;
+                isobjs[var.id] = true;
+                objvals[var.id] = var.value;
             }
         });
 
-        counter = vars[varCounter];
+        syncVars();
+    }
+
+    /** Copies the values of the register file into {@link #vars}. */
+    public void syncVars(){
+        for(int i = 0; i < vars.length; i++){
+            sync(i);
+        }
+    }
+
+    private Var sync(int index){
+        Var v = vars[index];
+        v.isobj = isobjs[index];
+        v.objval = objvals[index];
+        v.numval = numvals[index];
+        return v;
     }
 
     //region utility
@@ -122,50 +214,78 @@ public class LExecutor{
         return Double.isNaN(d) || Double.isInfinite(d);
     }
 
+    /**
+     * @return a copy of a variable's current value. Writing to it has no effect on the processor, use the setters for that.
+     * Instructions should use the other accessors, which read the register file directly.
+     */
     public Var var(int index){
-        //global constants have variable IDs < 0, and they are fetched from the global constants object after being negated
-        return index < 0 ? logicVars.get(-index) : vars[index];
+        //global variables have variable IDs < 0, and they are fetched from the global constants object after being negated
+        return index < 0 ? logicVars.get(-index) : sync(index);
     }
 
     /** @return a Var from this processor, never a global constant. May be null if out of bounds. */
     public @Nullable Var optionalVar(int index){
-        return index < 0 || index >= vars.length ? null : vars[index];
+        return index < 0 || index >= vars.length ? null : sync(index);
+    }
+
+    public boolean isobj(int index){
+        return index < 0 ? logicVars.get(-index).isobj : isobjs[index];
+    }
+
+    public boolean constant(int index){
+        return index < 0 || constants[index];
+    }
+
+    /** @return the stored value of a variable, boxed if it is a number. */
+    public @Nullable Object value(int index){
+        if(index < 0){
+            Var v = logicVars.get(-index);
+            return v.isobj ? v.objval : v.numval;
+        }
+        return isobjs[index] ? objvals[index] : numvals[index];
+    }
+
+    /** @return the raw number of a variable, which is meaningless if it holds an object. */
+    public double numval(int index){
+        return index < 0 ? logicVars.get(-index).numval : numvals[index];
     }
 
     public @Nullable Building building(int index){
-        Object o = var(index).objval;
-        return var(index).isobj && o instanceof Building building ? building : null;
+        return obj(index) instanceof Building building ? building : null;
     }
 
     public @Nullable Object obj(int index){
-        Object o = var(index).objval;
-        return var(index).isobj ? o : null;
+        if(index < 0){
+            Var v = logicVars.get(-index);
+            return v.isobj ? v.objval : null;
+        }
+        return isobjs[index] ? objvals[index] : null;
     }
 
     public @Nullable Team team(int index){
-        Var v = var(index);
-        if(v.isobj){
-            return v.objval instanceof Team t ? t : null;
+        if(isobj(index)){
+            return obj(index) instanceof Team t ? t : null;
         }else{
-            int t = (int)v.numval;
+            int t = (int)numval(index);
             if(t < 0 || t >= Team.all.length) return null;
             return Team.all[t];
         }
     }
 
     public boolean bool(int index){
-        Var v = var(index);
-        return v.isobj ? v.objval != null : Math.abs(v.numval) >= 0.00001;
+        return isobj(index) ? obj(index) != null : Math.abs(numval(index)) >= 0.00001;
     }
 
     public double num(int index){
-        Var v = var(index);
-        return v.isobj ? v.objval != null ? 1 : 0 : invalid(v.numval) ? 0 : v.numval;
+        if(index < 0){
+            Var v = logicVars.get(-index);
+            return v.isobj ? v.objval != null ? 1 : 0 : invalid(v.numval) ? 0 : v.numval;
+        }
+        return isobjs[index] ? objvals[index] != null ? 1 : 0 : invalid(numvals[index]) ? 0 : numvals[index];
     }
 
     public float numf(int index){
-        Var v = var(index);
-        return v.isobj ? v.objval != null ? 1 : 0 : invalid(v.numval) ? 0 : (float)v.numval;
+        return (float)num(index);
     }
 
     public int numi(int index){
@@ -177,29 +297,49 @@ public class LExecutor{
     }
 
     public void setnum(int index, double value){
-        Var v = var(index);
-        if(v.constant) return;
+        if(constant(index)) return;
         if(invalid(value)){
-            v.objval = null;
-            v.isobj = true;
+            objvals[index] = null;
+            isobjs[index] = true;
         }else{
-            v.numval = value;
-            v.objval = null;
-            v.isobj = false;
+            numvals[index] = value;
+            objvals[index] = null;
+            isobjs[index] = false;
         }
     }
 
     public void setobj(int index, Object value){
-        Var v = var(index);
-        if(v.constant) return;
-        v.objval = value;
-        v.isobj = true;
+        if(constant(index)) return;
+        objvals[index] = value;
+        isobjs[index] = true;
     }
 
     public void setconst(int index, Object value){
-        Var v = var(index);
-        v.objval = value;
-        v.isobj = true;
+        if(index < 0) return;
+        objvals[index] = value;
+        isobjs[index] = true;
+    }
+
+    /** Sets a variable to a value as returned by {@link #value(int)}, as long as it isn't constant. */
+    public void setValue(int index, @Nullable Object value){
+        if(value instanceof Double d){
+            setnum(index, d);
+        }else{
+            setobj(index, value);
+        }
+    }
+
+    /** Copies one variable into another, as long as the destination isn't constant. */
+    public void copy(int from, int to){
+        if(constant(to)) return;
+        if(isobj(from)){
+            objvals[to] = obj(from);
+            isobjs[to] = true;
+        }else{
+            double value = numval(from);
+            numvals[to] = invalid(value) ? 0 : value;
+            isobjs[to] = false;
+        }
     }
 
     //endregion
@@ -225,6 +365,14 @@ public class LExecutor{
 
     public interface LInstruction{
         void run(LExecutor exec);
+
+        /**
+         * @return whether running this next only reads the world and changes nothing but the executor's own state,
+         * so it can run in parallel with other processors. See {@link #runPure(int)}.
+         */
+        default boolean pure(LExecutor exec){
+            return false;
+        }
     }
 
     /** Binds the processor to a unit based on some filters. */
@@ -633,7 +781,7 @@ public class LExecutor{
                     b.noSleep();
                 }
 
-                if(type.isObj && exec.var(p1).isobj){
+                if(type.isObj && exec.isobj(p1)){
                     b.control(type, exec.obj(p1), exec.num(p2), exec.num(p3), exec.num(p4));
                 }else{
                     b.control(type, exec.num(p1), exec.num(p2), exec.num(p3), exec.num(p4));
@@ -653,6 +801,11 @@ public class LExecutor{
         public GetLinkI(){
         }
 
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+
         @Override
         public void run(LExecutor exec){
             int address = exec.numi(index);
@@ -673,6 +826,12 @@ public class LExecutor{
         public ReadI(){
         }
 
+        @Override
+        public boolean pure(LExecutor exec){
+            //cells are only written by instructions that aren't pure
+            return exec.building(target) instanceof MemoryBuild;
+        }
+
         @Override
         public void run(LExecutor exec){
             int address = exec.numi(position);
@@ -868,19 +1027,13 @@ public class LExecutor{
         SetI(){}
 
         @Override
-        public void run(LExecutor exec){
-            Var v = exec.var(to);
-            Var f = exec.var(from);
+        public boolean pure(LExecutor exec){
+            return true;
+        }
 
-            if(!v.constant){
-                if(f.isobj){
-                    v.objval = f.objval;
-                    v.isobj = true;
-                }else{
-                    v.numval = invalid(f.numval) ? 0 : f.numval;
-                    v.isobj = false;
-                }
-            }
+        @Override
+        public void run(LExecutor exec){
+            exec.copy(from, to);
         }
     }
 
@@ -897,18 +1050,21 @@ public class LExecutor{
 
         OpI(){}
 
+        @Override
+        public boolean pure(LExecutor exec){
+            //rand shares its state between processors
+            return op != LogicOp.rand;
+        }
+
         @Override
         public void run(LExecutor exec){
             if(op == LogicOp.strictEqual){
-                Var v = exec.var(a), v2 = exec.var(b);
-                exec.setnum(dest, v.isobj == v2.isobj && ((v.isobj && Structs.eq(v.objval, v2.objval)) || (!v.isobj && v.numval == v2.numval)) ? 1 : 0);
+                boolean obj = exec.isobj(a);
+                exec.setnum(dest, obj == exec.isobj(b) && ((obj && Structs.eq(exec.obj(a), exec.obj(b))) || (!obj && exec.numval(a) == exec.numval(b))) ? 1 : 0);
             }else if(op.unary){
                 exec.setnum(dest, op.function1.get(exec.num(a)));
             }else{
-                Var va = exec.var(a);
-                Var vb = exec.var(b);
-
-                if(op.objFunction2 != null && va.isobj && vb.isobj){
+                if(op.objFunction2 != null && exec.isobj(a) && exec.isobj(b)){
                     //use object function if both are objects
                     exec.setnum(dest, op.objFunction2.get(exec.obj(a), exec.obj(b)));
                 }else{
@@ -922,13 +1078,23 @@ public class LExecutor{
 
     public static class EndI implements LInstruction{
 
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+
         @Override
         public void run(LExecutor exec){
-            exec.var(varCounter).numval = exec.instructions.length;
+            exec.numvals[varCounter] = exec.instructions.length;
         }
     }
 
     public static class NoopI implements LInstruction{
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+
         @Override
         public void run(LExecutor exec){}
     }
@@ -1024,23 +1190,28 @@ public class LExecutor{
 
         PrintI(){}
 
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+
         @Override
         public void run(LExecutor exec){
 
             if(exec.textBuffer.length() >= maxTextBuffer) return;
 
             //this should avoid any garbage allocation
-            Var v = exec.var(value);
-            if(v.isobj && value != 0){
-                String strValue = toString(v.objval);
+            if(exec.isobj(value) && value != 0){
+                String strValue = toString(exec.obj(value));
 
                 exec.textBuffer.append(strValue);
             }else{
+                double num = exec.numval(value);
                 //display integer version when possible
-                if(Math.abs(v.numval - (long)v.numval) < 0.00001){
-                    exec.textBuffer.append((long)v.numval);
+                if(Math.abs(num - (long)num) < 0.00001){
+                    exec.textBuffer.append((long)num);
                 }else{
-                    exec.textBuffer.append(v.numval);
+                    exec.textBuffer.append(num);
                 }
             }
         }
@@ -1098,16 +1269,19 @@ public class LExecutor{
         public JumpI(){
         }
 
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+
         @Override
         public void run(LExecutor exec){
             if(address != -1){
-                Var va = exec.var(value);
-                Var vb = exec.var(compare);
-                boolean cmp;
+                boolean obj = exec.isobj(value), cmp;
 
                 if(op == ConditionOp.strictEqual){
-                    cmp = va.isobj == vb.isobj && ((va.isobj && va.objval == vb.objval) || (!va.isobj && va.numval == vb.numval));
-                }else if(op.objFunction != null && va.isobj && vb.isobj){
+                    cmp = obj == exec.isobj(compare) && ((obj && exec.obj(value) == exec.obj(compare)) || (!obj && exec.numval(value) == exec.numval(compare)));
+                }else if(op.objFunction != null && obj && exec.isobj(compare)){
                     //use object function if both are objects
                     cmp = op.objFunction.get(exec.obj(value), exec.obj(compare));
                 }else{
@@ -1115,7 +1289,7 @@ public class LExecutor{
                 }
 
                 if(cmp){
-                    exec.var(varCounter).numval = address;
+                    exec.numvals[varCounter] = address;
                 }
             }
         }
@@ -1134,13 +1308,18 @@ public class LExecutor{
         public WaitI(){
         }
 
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+
         @Override
         public void run(LExecutor exec){
             if(curTime >= exec.num(value)){
                 curTime = 0f;
             }else{
                 //skip back to self.
-                exec.var(varCounter).numval --;
+                exec.numvals[varCounter] --;
             }
 
             if(state.updateId != frameId){
@@ -1152,10 +1331,15 @@ public class LExecutor{
 
     public static class StopI implements LInstruction{
 
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+
         @Override
         public void run(LExecutor exec){
             //skip back to self.
-            exec.var(varCounter).numval --;
+            exec.numvals[varCounter] --;
         }
     }
 
@@ -1173,6 +1357,11 @@ public class LExecutor{
         public LookupI(){
         }
 
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+
         @Override
         public void run(LExecutor exec){
             exec.setobj(dest, logicVars.lookupContent(type, exec.numi(from)));
@@ -1193,6 +1382,11 @@ public class LExecutor{
         public PackColorI(){
         }
 
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+
         @Override
         public void run(LExecutor exec){
             exec.setnum(result, Color.toDoubleBits(Mathf.clamp(exec.numf(r)), Mathf.clamp(exec.numf(g)), Mathf.clamp(exec.numf(b)), Mathf.clamp(exec.numf(a))));
@@ -1557,7 +1751,7 @@ public class LExecutor{
                 type == MessageType.notify && ui.hudfrag.hasToast() ||
                 type == MessageType.toast && ui.hasAnnouncement()
             ){
-                exec.var(varCounter).numval --;
+                exec.numvals[varCounter] --;
                 return;
             }
 
@@ -1663,8 +1857,8 @@ public class LExecutor{
         public void run(LExecutor exec){
             if(exec.build != null && exec.build.block.privileged){
                 exec.build.ipt = Mathf.clamp(exec.numi(amount), 1, ((LogicBlock)exec.build.block).maxInstructionsPerTick);
-                if(exec.iptIndex >= 0 && exec.vars.length > exec.iptIndex){
-                    exec.vars[exec.iptIndex].numval = exec.build.ipt;
+                if(exec.iptIndex >= 0 && exec.numvals.length > exec.iptIndex){
+                    exec.numvals[exec.iptIndex] = exec.build.ipt;
                 }
             }
         }
@@ -1673,14 +1867,14 @@ public class LExecutor{
     @Remote(unreliable = true)
     public static void syncVariable(Building building, int variable, Object value){
         if(building instanceof LogicBuild build){
-            Var v = build.executor.optionalVar(variable);
-            if(v != null && !v.constant){
+            LExecutor exec = build.executor;
+            if(variable >= 0 && variable < exec.vars.length && !exec.constants[variable]){
                 if(value instanceof Double d){
-                    v.isobj = false;
-                    v.numval = d;
+                    exec.isobjs[variable] = false;
+                    exec.numvals[variable] = d;
                 }else{
-                    v.isobj = true;
-                    v.objval = value;
+                    exec.isobjs[variable] = true;
+                    exec.objvals[variable] = value;
                 }
             }
         }
@@ -1702,10 +1896,9 @@ public class LExecutor{
         @Override
         public void run(LExecutor exec){
             if(exec.build != null && exec.build.block.privileged){
-                Var v = exec.var(variable);
-                if(!v.constant && Time.timeSinceMillis(v.syncTime) > syncInterval){
-                    v.syncTime = Time.millis();
-                    Call.syncVariable(exec.build, variable, v.isobj ? v.objval : v.numval);
+                if(!exec.constant(variable) && Time.timeSinceMillis(exec.vars[variable].syncTime) > syncInterval){
+                    exec.vars[variable].syncTime = Time.millis();
+                    Call.syncVariable(exec.build, variable, exec.value(variable));
                 }
             }
         }
@@ -1824,11 +2017,10 @@ public class LExecutor{
 
             if(target instanceof Settable sp){
                 if(key instanceof LAccess property){
-                    Var var = exec.var(value);
-                    if(var.isobj){
-                        sp.setProp(property, var.objval);
+                    if(exec.isobj(value)){
+                        sp.setProp(property, exec.obj(value));
                     }else{
-                        sp.setProp(property, var.numval);
+                        sp.setProp(property, exec.numval(value));
                     }
                 }else if(key instanceof UnlockableContent content){
                     sp.setProp(content, exec.num(value));
@@ -0,0 +1,612 @@
+package mindustry.logic;
+
+import arc.util.*;
+import mindustry.logic.LAssembler.*;
+import mindustry.logic.LExecutor.*;
+
+import static mindustry.logic.LExecutor.*;
+
+/**
+ * Replaces generic {@link OpI} and {@link JumpI} instructions with ones specialized for their operation, so that the hottest processor loops
+ * run monomorphic code instead of going through {@link LogicOp} and {@link ConditionOp} lambdas. Constant operands are folded in, and an
+ * increment followed by a less-than jump on the same variable is fused into one instruction.
+ * Instruction indices never change, so jumps and writes to @counter behave exactly as before.
+ */
+public class LOptimizer{
+    /** Whether processors are optimized when they are loaded. */
+    public static boolean enabled = true;
+
+    /** @return the assembler's instructions with specialized ones in place of generic ones where possible. The assembler is not modified. */
+    public static LInstruction[] optimize(LAssembler asm){
+        LInstruction[] out = asm.instructions.clone();
+        if(!enabled) return out;
+
+        Constants constants = new Constants(asm);
+
+        for(int i = 0; i < out.length; i++){
+            LInstruction replaced = null;
+            if(out[i] instanceof OpI op){
+                replaced = op(op, constants);
+            }else if(out[i] instanceof JumpI jump){
+                replaced = jump(jump, constants);
+            }
+            if(replaced != null) out[i] = replaced;
+        }
+
+        //fuse after specializing, the second instruction stays in place for anything that jumps to it directly
+        for(int i = 0; i < out.length - 1; i++){
+            if(out[i] instanceof AddKI add && add.a == add.dest && add.dest != varCounter){
+                if(out[i + 1] instanceof JumpLessI jump && jump.value == add.dest && jump.compare != varCounter){
+                    out[i] = new IncrementJumpLessI(add.dest, add.k, jump.compare, jump.address);
+                }else if(out[i + 1] instanceof JumpLessKI jump && jump.value == add.dest){
+                    out[i] = new IncrementJumpLessKI(add.dest, add.k, jump.k, jump.address);
+                }
+            }
+        }
+
+        return out;
+    }
+
+    static @Nullable LInstruction op(OpI inst, Constants constants){
+        LogicOp op = inst.op;
+        //objects and strict equality need the generic instruction
+        if(op.unary || op.objFunction2 != null || op == LogicOp.strictEqual) return null;
+
+        int a = inst.a, b = inst.b, dest = inst.dest;
+        if(constants.is(a) && constants.is(b)){
+            return new SetNumI(dest, op.function2.get(constants.get(a), constants.get(b)));
+        }
+
+        //put the constant on the right, where it can be folded
+        if(constants.is(a)){
+            LogicOp swapped = switch(op){
+                case add, mul, max, min, land, and, or, xor -> op;
+                case lessThan -> LogicOp.greaterThan;
+                case lessThanEq -> LogicOp.greaterThanEq;
+                case greaterThan -> LogicOp.lessThan;
+                case greaterThanEq -> LogicOp.lessThanEq;
+                default -> null;
+            };
+            if(swapped != null){
+                op = swapped;
+                int tmp = a;
+                a = b;
+                b = tmp;
+            }
+        }
+
+        if(constants.is(b)){
+            double k = constants.get(b);
+            return switch(op){
+                case add -> new AddKI(a, k, dest);
+                case sub -> new AddKI(a, -k, dest);
+                case mul -> new MulKI(a, k, dest);
+                case div -> new DivKI(a, k, dest);
+                case idiv -> new IdivKI(a, k, dest);
+                case mod -> new ModKI(a, k, dest);
+                case lessThan -> new LessKI(a, k, dest);
+                case lessThanEq -> new LessEqKI(a, k, dest);
+                case greaterThan -> new GreaterKI(a, k, dest);
+                case greaterThanEq -> new GreaterEqKI(a, k, dest);
+                default -> new NumOpI(op, a, b, dest);
+            };
+        }
+
+        return switch(op){
+            case add -> new AddI(a, b, dest);
+            case sub -> new SubI(a, b, dest);
+            case mul -> new MulI(a, b, dest);
+            case div -> new DivI(a, b, dest);
+            case idiv -> new IdivI(a, b, dest);
+            case mod -> new ModI(a, b, dest);
+            case lessThan -> new LessI(a, b, dest);
+            case lessThanEq -> new LessEqI(a, b, dest);
+            case greaterThan -> new GreaterI(a, b, dest);
+            case greaterThanEq -> new GreaterEqI(a, b, dest);
+            default -> new NumOpI(op, a, b, dest);
+        };
+    }
+
+    static @Nullable LInstruction jump(JumpI inst, Constants constants){
+        if(inst.address == -1) return null;
+        if(inst.op == ConditionOp.always) return new JumpAlwaysI(inst.address);
+
+        ConditionOp op = inst.op;
+        //equality needs the generic instruction, as it compares objects
+        if(op.objFunction != null || op == ConditionOp.strictEqual) return null;
+
+        int value = inst.value, compare = inst.compare;
+        if(constants.is(value) && constants.is(compare)){
+            return op.function.get(constants.get(value), constants.get(compare)) ? new JumpAlwaysI(inst.address) : new NoopI();
+        }
+
+        if(constants.is(value)){
+            op = switch(op){
+                case lessThan -> ConditionOp.greaterThan;
+                case lessThanEq -> ConditionOp.greaterThanEq;
+                case greaterThan -> ConditionOp.lessThan;
+                default -> ConditionOp.lessThanEq;
+            };
+            value = inst.compare;
+            compare = inst.value;
+        }
+
+        if(constants.is(compare)){
+            double k = constants.get(compare);
+            return switch(op){
+                case lessThan -> new JumpLessKI(value, k, inst.address);
+                case lessThanEq -> new JumpLessEqKI(value, k, inst.address);
+                case greaterThan -> new JumpGreaterKI(value, k, inst.address);
+                default -> new JumpGreaterEqKI(value, k, inst.address);
+            };
+        }
+
+        return switch(op){
+            case lessThan -> new JumpLessI(value, compare, inst.address);
+            case lessThanEq -> new JumpLessEqI(value, compare, inst.address);
+            case greaterThan -> new JumpGreaterI(value, compare, inst.address);
+            default -> new JumpGreaterEqI(value, compare, inst.address);
+        };
+    }
+
+    /** The variables of an assembler that always hold the same number. */
+    static class Constants{
+        final boolean[] constant;
+        final double[] values;
+
+        Constants(LAssembler asm){
+            constant = new boolean[asm.vars.size];
+            values = new double[asm.vars.size];
+            BVar ipt = asm.getVar("@ipt");
+
+            for(BVar var : asm.vars.values()){
+                //@ipt is written by the setrate instruction, despite being constant
+                if(var.constant && var != ipt && var.value instanceof Number number){
+                    double value = number.doubleValue();
+                    constant[var.id] = true;
+                    values[var.id] = Double.isNaN(value) || Double.isInfinite(value) ? 0 : value;
+                }
+            }
+        }
+
+        boolean is(int id){
+            return id >= 0 && constant[id];
+        }
+
+        double get(int id){
+            return values[id];
+        }
+    }
+
+    //region specialized instructions
+
+    public static final class SetNumI implements LInstruction{
+        public final int dest;
+        public final double value;
+
+        public SetNumI(int dest, double value){
+            this.dest = dest;
+            this.value = value;
+        }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, value);
+        }
+
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+    }
+
+    /** A numeric operation without the object and strict equality checks of {@link OpI}. */
+    public static final class NumOpI implements LInstruction{
+        public final LogicOp op;
+        public final int a, b, dest;
+
+        public NumOpI(LogicOp op, int a, int b, int dest){
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.dest = dest;
+        }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, op.function2.get(exec.num(a), exec.num(b)));
+        }
+
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+    }
+
+    /** An operation on two variables. */
+    public static abstract class BinaryI implements LInstruction{
+        public final int a, b, dest;
+
+        BinaryI(int a, int b, int dest){
+            this.a = a;
+            this.b = b;
+            this.dest = dest;
+        }
+
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+    }
+
+    /** An operation on a variable and a constant. */
+    public static abstract class BinaryKI implements LInstruction{
+        public final int a, dest;
+        public final double k;
+
+        BinaryKI(int a, double k, int dest){
+            this.a = a;
+            this.k = k;
+            this.dest = dest;
+        }
+
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+    }
+
+    public static final class AddI extends BinaryI{
+        AddI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) + exec.num(b));
+        }
+    }
+
+    public static final class SubI extends BinaryI{
+        SubI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) - exec.num(b));
+        }
+    }
+
+    public static final class MulI extends BinaryI{
+        MulI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) * exec.num(b));
+        }
+    }
+
+    public static final class DivI extends BinaryI{
+        DivI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) / exec.num(b));
+        }
+    }
+
+    public static final class IdivI extends BinaryI{
+        IdivI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, Math.floor(exec.num(a) / exec.num(b)));
+        }
+    }
+
+    public static final class ModI extends BinaryI{
+        ModI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) % exec.num(b));
+        }
+    }
+
+    public static final class LessI extends BinaryI{
+        LessI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) < exec.num(b) ? 1 : 0);
+        }
+    }
+
+    public static final class LessEqI extends BinaryI{
+        LessEqI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) <= exec.num(b) ? 1 : 0);
+        }
+    }
+
+    public static final class GreaterI extends BinaryI{
+        GreaterI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) > exec.num(b) ? 1 : 0);
+        }
+    }
+
+    public static final class GreaterEqI extends BinaryI{
+        GreaterEqI(int a, int b, int dest){ super(a, b, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) >= exec.num(b) ? 1 : 0);
+        }
+    }
+
+    public static final class AddKI extends BinaryKI{
+        AddKI(int a, double k, int dest){ super(a, k, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) + k);
+        }
+    }
+
+    public static final class MulKI extends BinaryKI{
+        MulKI(int a, double k, int dest){ super(a, k, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) * k);
+        }
+    }
+
+    public static final class DivKI extends BinaryKI{
+        DivKI(int a, double k, int dest){ super(a, k, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) / k);
+        }
+    }
+
+    public static final class IdivKI extends BinaryKI{
+        IdivKI(int a, double k, int dest){ super(a, k, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, Math.floor(exec.num(a) / k));
+        }
+    }
+
+    public static final class ModKI extends BinaryKI{
+        ModKI(int a, double k, int dest){ super(a, k, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) % k);
+        }
+    }
+
+    public static final class LessKI extends BinaryKI{
+        LessKI(int a, double k, int dest){ super(a, k, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) < k ? 1 : 0);
+        }
+    }
+
+    public static final class LessEqKI extends BinaryKI{
+        LessEqKI(int a, double k, int dest){ super(a, k, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) <= k ? 1 : 0);
+        }
+    }
+
+    public static final class GreaterKI extends BinaryKI{
+        GreaterKI(int a, double k, int dest){ super(a, k, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) > k ? 1 : 0);
+        }
+    }
+
+    public static final class GreaterEqKI extends BinaryKI{
+        GreaterEqKI(int a, double k, int dest){ super(a, k, dest); }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(dest, exec.num(a) >= k ? 1 : 0);
+        }
+    }
+
+    public static final class JumpAlwaysI implements LInstruction{
+        public final int address;
+
+        public JumpAlwaysI(int address){
+            this.address = address;
+        }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.numvals[varCounter] = address;
+        }
+
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+    }
+
+    /** A jump comparing two variables. */
+    public static abstract class CompareJumpI implements LInstruction{
+        public final int value, compare, address;
+
+        CompareJumpI(int value, int compare, int address){
+            this.value = value;
+            this.compare = compare;
+            this.address = address;
+        }
+
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+    }
+
+    /** A jump comparing a variable to a constant. */
+    public static abstract class CompareJumpKI implements LInstruction{
+        public final int value, address;
+        public final double k;
+
+        CompareJumpKI(int value, double k, int address){
+            this.value = value;
+            this.k = k;
+            this.address = address;
+        }
+
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+    }
+
+    public static final class JumpLessI extends CompareJumpI{
+        JumpLessI(int value, int compare, int address){ super(value, compare, address); }
+
+        @Override
+        public void run(LExecutor exec){
+            if(exec.num(value) < exec.num(compare)) exec.numvals[varCounter] = address;
+        }
+    }
+
+    public static final class JumpLessEqI extends CompareJumpI{
+        JumpLessEqI(int value, int compare, int address){ super(value, compare, address); }
+
+        @Override
+        public void run(LExecutor exec){
+            if(exec.num(value) <= exec.num(compare)) exec.numvals[varCounter] = address;
+        }
+    }
+
+    public static final class JumpGreaterI extends CompareJumpI{
+        JumpGreaterI(int value, int compare, int address){ super(value, compare, address); }
+
+        @Override
+        public void run(LExecutor exec){
+            if(exec.num(value) > exec.num(compare)) exec.numvals[varCounter] = address;
+        }
+    }
+
+    public static final class JumpGreaterEqI extends CompareJumpI{
+        JumpGreaterEqI(int value, int compare, int address){ super(value, compare, address); }
+
+        @Override
+        public void run(LExecutor exec){
+            if(exec.num(value) >= exec.num(compare)) exec.numvals[varCounter] = address;
+        }
+    }
+
+    public static final class JumpLessKI extends CompareJumpKI{
+        JumpLessKI(int value, double k, int address){ super(value, k, address); }
+
+        @Override
+        public void run(LExecutor exec){
+            if(exec.num(value) < k) exec.numvals[varCounter] = address;
+        }
+    }
+
+    public static final class JumpLessEqKI extends CompareJumpKI{
+        JumpLessEqKI(int value, double k, int address){ super(value, k, address); }
+
+        @Override
+        public void run(LExecutor exec){
+            if(exec.num(value) <= k) exec.numvals[varCounter] = address;
+        }
+    }
+
+    public static final class JumpGreaterKI extends CompareJumpKI{
+        JumpGreaterKI(int value, double k, int address){ super(value, k, address); }
+
+        @Override
+        public void run(LExecutor exec){
+            if(exec.num(value) > k) exec.numvals[varCounter] = address;
+        }
+    }
+
+    public static final class JumpGreaterEqKI extends CompareJumpKI{
+        JumpGreaterEqKI(int value, double k, int address){ super(value, k, address); }
+
+        @Override
+        public void run(LExecutor exec){
+            if(exec.num(value) >= k) exec.numvals[varCounter] = address;
+        }
+    }
+
+    /** {@code op add i i k} followed by {@code jump address lessThan i compare}. Counts as two instructions. */
+    public static final class IncrementJumpLessI implements LInstruction{
+        public final int var, compare, address;
+        public final double k;
+
+        IncrementJumpLessI(int var, double k, int compare, int address){
+            this.var = var;
+            this.k = k;
+            this.compare = compare;
+            this.address = address;
+        }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(var, exec.num(var) + k);
+            exec.extraInstructions++;
+            if(exec.num(var) < exec.num(compare)){
+                exec.numvals[varCounter] = address;
+            }else{
+                exec.numvals[varCounter]++;
+            }
+        }
+
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+    }
+
+    /** {@code op add i i k} followed by {@code jump address lessThan i limit}, with a constant limit. Counts as two instructions. */
+    public static final class IncrementJumpLessKI implements LInstruction{
+        public final int var, address;
+        public final double k, limit;
+
+        IncrementJumpLessKI(int var, double k, double limit, int address){
+            this.var = var;
+            this.k = k;
+            this.limit = limit;
+            this.address = address;
+        }
+
+        @Override
+        public void run(LExecutor exec){
+            exec.setnum(var, exec.num(var) + k);
+            exec.extraInstructions++;
+            if(exec.num(var) < limit){
+                exec.numvals[varCounter] = address;
+            }else{
+                exec.numvals[varCounter]++;
+            }
+        }
+
+        @Override
+        public boolean pure(LExecutor exec){
+            return true;
+        }
+    }
+
+    //endregion
+}
@@ -140,6 +140,9 @@ public class LogicDialog extends BaseDialog{
                 p.margin(10f).marginRight(16f);
                 p.table(Tex.button, t -> {
                     t.defaults().fillX().height(45f);
+                    //copy the values out of the register file before the labels read them
+                    t.update(executor::syncVars);
+                    executor.syncVars();
                     for(var s : executor.vars){
                         if(s.constant) continue;
 
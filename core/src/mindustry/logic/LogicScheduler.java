@@ -0,0 +1,162 @@
+package mindustry.logic;
+
+import arc.struct.*;
+import arc.util.*;
+import mindustry.net.Administration.*;
+import mindustry.world.blocks.logic.LogicBlock.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs processors in a phase of their own after buildings update, instead of while each one updates.
+ * When {@link Config#logicBudget} is set, the instructions all processors may run in a tick are shared between them fairly: processors that want
+ * less than an equal share run fully, and what they leave is split between the rest. Instructions that don't fit stay in the processor's accumulator.
+ * When {@link Config#logicThreads} is above 1, each processor first runs its {@link LExecutor#runPure(int) pure} instructions on a thread pool,
+ * then everything from its first other instruction on is run on the main thread, in the order the processors were queued.
+ * Pure runs only see the world as it was before any processor ran this tick, so the results are the same for any amount of threads above 1.
+ * They do differ from running everything on the main thread: there, a processor reading a memory cell sees what processors queued before it
+ * wrote this tick, while with threads its read runs before any writes and sees the cell as it was at the end of the last tick.
+ */
+public class LogicScheduler{
+    private final Seq<LogicBuild> queued = new Seq<>(LogicBuild.class);
+    /** Whether each queued processor was in the world when it was queued. Processors carried as payloads are not, but still run. */
+    private boolean[] queuedAdded = {};
+    private int[] budgets = {}, ranPure = {};
+    /** Budgets packed with their index, so sorting them keeps track of the processor. */
+    private long[] sorted = {};
+
+    private @Nullable ExecutorService pool;
+    private int poolThreads;
+    private final AtomicInteger nextPure = new AtomicInteger();
+    private final Seq<Future<?>> futures = new Seq<>();
+
+    /** Instructions run by all processors in the last tick. */
+    public int lastInstructions;
+    /** Instructions run on the thread pool in the last tick, which are included in {@link #lastInstructions}. */
+    public int lastParallelInstructions;
+    /** How many processors were queued in the last tick. */
+    public int lastProcessors;
+    /** How many processors ran fewer instructions than they had accumulated in the last tick, due to the budget. */
+    public int lastThrottled;
+
+    /** Queues a processor to run this tick. */
+    public void queue(LogicBuild build){
+        if(queuedAdded.length <= queued.size){
+            queuedAdded = Arrays.copyOf(queuedAdded, Math.max(queued.size * 2, 16));
+        }
+        queuedAdded[queued.size] = build.isAdded();
+        queued.add(build);
+    }
+
+    /** Runs every processor queued since the last call, in the order they were queued. */
+    public void update(){
+        int size = queued.size, budget = Config.logicBudget.num(), threads = Config.logicThreads.num();
+        LogicBuild[] builds = queued.items;
+
+        if(budgets.length < size){
+            budgets = new int[size * 2];
+            ranPure = new int[size * 2];
+            sorted = new long[size * 2];
+        }
+
+        long total = 0;
+        for(int i = 0; i < size; i++){
+            budgets[i] = Math.max((int)builds[i].accumulator, 0);
+            total += budgets[i];
+        }
+
+        lastThrottled = 0;
+        if(budget > 0 && total > budget){
+            for(int i = 0; i < size; i++){
+                sorted[i] = ((long)budgets[i] << 32) | i;
+            }
+            Arrays.sort(sorted, 0, size);
+
+            //hand out the smallest budgets first, so what they don't use goes to the others
+            int remaining = budget;
+            for(int i = 0; i < size; i++){
+                int index = (int)sorted[i], share = remaining / (size - i);
+                if(budgets[index] > share){
+                    budgets[index] = share;
+                    lastThrottled++;
+                }
+                remaining -= budgets[index];
+            }
+        }
+
+        Arrays.fill(ranPure, 0, size, 0);
+        if(threads > 1 && size > 1){
+            runPure(builds, size, threads);
+        }else if(threads <= 1 && pool != null){
+            //parallel runs were turned off, don't keep the idle threads around
+            pool.shutdown();
+            pool = null;
+        }
+
+        lastInstructions = lastParallelInstructions = 0;
+        for(int i = 0; i < size; i++){
+            LogicBuild build = builds[i];
+            int ran = ranPure[i];
+            if(shouldRun(build, i) && budgets[i] > ran){
+                ran += build.executor.run(budgets[i] - ran);
+            }
+
+            build.accumulator -= ran;
+            build.lastInstructions = ran;
+            build.totalInstructions += ran;
+            lastInstructions += ran;
+            lastParallelInstructions += ranPure[i];
+        }
+
+        lastProcessors = size;
+        queued.clear();
+    }
+
+    /** @return whether a queued processor may still run, which is not the case once it was destroyed or removed from the world after being queued. */
+    private boolean shouldRun(LogicBuild build, int index){
+        return !build.dead() && (build.isAdded() || !queuedAdded[index]);
+    }
+
+    /** Runs the pure instructions of every processor on the pool, with the main thread helping. Returns once they all stopped. */
+    private void runPure(LogicBuild[] builds, int size, int threads){
+        if(pool == null || poolThreads != threads){
+            if(pool != null) pool.shutdown();
+
+            poolThreads = threads;
+            pool = Executors.newFixedThreadPool(threads - 1, r -> {
+                Thread thread = new Thread(r, "Logic-Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        //processors are handed out one at a time, since their cost varies a lot
+        nextPure.set(0);
+        Runnable work = () -> {
+            int i;
+            while((i = nextPure.getAndIncrement()) < size){
+                LogicBuild build = builds[i];
+                if(shouldRun(build, i) && budgets[i] > 0){
+                    ranPure[i] = build.executor.runPure(budgets[i]);
+                }
+            }
+        };
+
+        for(int i = 0; i < threads - 1; i++){
+            futures.add(pool.submit(work));
+        }
+
+        try{
+            work.run();
+            for(Future<?> future : futures){
+                future.get();
+            }
+        }catch(InterruptedException | ExecutionException e){
+            throw new ArcRuntimeException(e);
+        }finally{
+            futures.clear();
+        }
+    }
+}
@@ -13,6 +13,8 @@ import mindustry.type.*;
 import mindustry.world.*;
 import mindustry.world.blocks.payloads.*;
 
+import java.io.*;
+
 import static mindustry.Vars.*;
 import static mindustry.game.EventType.*;
 
@@ -26,10 +28,19 @@ public class Administration{
     public ObjectMap<String, Long> kickedIPs = new ObjectMap<>();
 
 
-    private boolean modified, loaded;
+    private boolean modified, loaded, playerDataLoaded;
+    /** Stores player info; separate from the settings, so that saving doesn't rewrite every player. */
+    private PlayerInfoLog playerLog;
     /** All player info. Maps UUIDs to info. This persists throughout restarts. Do not modify directly. */
     public ObjectMap<String, PlayerInfo> playerInfo = new ObjectMap<>();
 
+    /** Maps IPs to the info of every player that used them. */
+    private ObjectMap<String, Seq<PlayerInfo>> ipIndex = new ObjectMap<>();
+    /** Maps normalized forms of every name (see {@link #nameKeys(String, Cons)}) to the info of every player that used them. */
+    private ObjectMap<String, Seq<PlayerInfo>> nameIndex = new ObjectMap<>();
+    /** Same contents as {@link #subnetBans}, for checking all prefixes of an IP. */
+    private ObjectSet<String> subnetBanSet = new ObjectSet<>();
+
     public Administration(){
         load();
 
@@ -116,16 +127,23 @@ public class Administration{
 
     public void removeSubnetBan(String ip){
         subnetBans.remove(ip);
+        subnetBanSet.remove(ip);
         save();
     }
 
     public void addSubnetBan(String ip){
         subnetBans.add(ip);
+        subnetBanSet.add(ip);
         save();
     }
 
     public boolean isSubnetBanned(String ip){
-        return subnetBans.contains(ip::startsWith);
+        if(subnetBans.isEmpty()) return false;
+
+        for(int i = 0; i <= ip.length(); i++){
+            if(subnetBanSet.contains(ip.substring(0, i))) return true;
+        }
+        return false;
     }
 
     /** Adds a chat filter. This will transform the chat messages of every player.
@@ -198,6 +216,7 @@ public class Administration{
         info.timesJoined++;
         if(!info.names.contains(name, false)) info.names.add(name);
         if(!info.ips.contains(ip, false)) info.ips.add(ip);
+        index(info);
     }
 
     public boolean banPlayer(String uuid){
@@ -212,8 +231,9 @@ public class Administration{
         if(bannedIPs.contains(ip, false))
             return false;
 
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
+        var infos = ipIndex.get(ip);
+        if(infos != null){
+            for(PlayerInfo info : infos){
                 info.banned = true;
             }
         }
@@ -243,8 +263,9 @@ public class Administration{
     public boolean unbanPlayerIP(String ip){
         boolean found = bannedIPs.contains(ip, false);
 
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
+        var infos = ipIndex.get(ip);
+        if(infos != null){
+            for(PlayerInfo info : infos){
                 info.banned = false;
                 found = true;
             }
@@ -366,7 +387,9 @@ public class Administration{
     }
 
     public boolean isIPBanned(String ip){
-        return bannedIPs.contains(ip, false) || (findByIP(ip) != null && findByIP(ip).banned);
+        if(bannedIPs.contains(ip, false)) return true;
+        PlayerInfo info = findByIP(ip);
+        return info != null && info.banned;
     }
 
     public boolean isIDBanned(String uuid){
@@ -382,13 +405,23 @@ public class Administration{
     public ObjectSet<PlayerInfo> findByName(String name){
         ObjectSet<PlayerInfo> result = new ObjectSet<>();
 
-        for(PlayerInfo info : playerInfo.values()){
+        //the indices only narrow down the candidates, the checks below stay the same
+        Cons<PlayerInfo> check = info -> {
             if(info.lastName.equalsIgnoreCase(name) || info.names.contains(name, false)
             || Strings.stripColors(Strings.stripColors(info.lastName)).equals(name)
             || info.ips.contains(name, false) || info.id.equals(name)){
                 result.add(info);
             }
-        }
+        };
+
+        var byName = nameIndex.get(name.toLowerCase());
+        if(byName != null) byName.each(check);
+
+        var byIP = ipIndex.get(name);
+        if(byIP != null) byIP.each(check);
+
+        var byID = playerInfo.get(name);
+        if(byID != null) check.get(byID);
 
         return result;
     }
@@ -396,10 +429,16 @@ public class Administration{
     /** Finds by name, using contains(). */
     public ObjectSet<PlayerInfo> searchNames(String name){
         ObjectSet<PlayerInfo> result = new ObjectSet<>();
+        String lower = name.toLowerCase();
 
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.names.contains(n -> n.toLowerCase().contains(name.toLowerCase()) || Strings.stripColors(n).trim().toLowerCase().contains(name))){
-                result.add(info);
+        //distinct normalized names are much fewer than players, and don't need to be stripped or lowercased again
+        for(var entry : nameIndex){
+            if(!entry.key.contains(lower) && !entry.key.contains(name)) continue;
+
+            for(PlayerInfo info : entry.value){
+                if(!result.contains(info) && info.names.contains(n -> n.toLowerCase().contains(lower) || Strings.stripColors(n).trim().toLowerCase().contains(name))){
+                    result.add(info);
+                }
             }
         }
 
@@ -407,15 +446,8 @@ public class Administration{
     }
 
     public Seq<PlayerInfo> findByIPs(String ip){
-        Seq<PlayerInfo> result = new Seq<>();
-
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                result.add(info);
-            }
-        }
-
-        return result;
+        var infos = ipIndex.get(ip);
+        return infos == null ? new Seq<>() : infos.copy();
     }
 
     public PlayerInfo getInfo(String id){
@@ -427,12 +459,8 @@ public class Administration{
     }
 
     public PlayerInfo findByIP(String ip){
-        for(PlayerInfo info : playerInfo.values()){
-            if(info.ips.contains(ip, false)){
-                return info;
-            }
-        }
-        return null;
+        var infos = ipIndex.get(ip);
+        return infos == null || infos.isEmpty() ? null : infos.first();
     }
 
     public Seq<PlayerInfo> getWhitelisted(){
@@ -454,9 +482,67 @@ public class Administration{
         modified = true;
     }
 
+    /** Adds all IPs and names of a player to the lookup indices. Call this after modifying them. */
+    public void index(PlayerInfo info){
+        for(String ip : info.ips){
+            var infos = ipIndex.get(ip);
+            if(infos == null){
+                ipIndex.put(ip, infos = new Seq<>());
+            }
+            if(!infos.contains(info, true)) infos.add(info);
+        }
+
+        Cons<String> add = key -> {
+            var infos = nameIndex.get(key, Seq::new);
+            if(!infos.contains(info, true)) infos.add(info);
+        };
+
+        nameKeys(info.lastName, add);
+        for(String name : info.names){
+            nameKeys(name, add);
+        }
+    }
+
+    /** Rebuilds all lookup indices from scratch. */
+    public void reindex(){
+        ipIndex.clear();
+        nameIndex.clear();
+        for(PlayerInfo info : playerInfo.values()){
+            index(info);
+        }
+
+        subnetBanSet.clear();
+        subnetBanSet.addAll(subnetBans);
+    }
+
+    /** Provides the normalized forms of a name that are used as keys in the name index. */
+    private static void nameKeys(String name, Cons<String> out){
+        String lower = name.toLowerCase();
+        out.get(lower);
+
+        String stripped = Strings.stripColors(name).trim().toLowerCase();
+        if(!stripped.equals(lower)) out.get(stripped);
+
+        String strippedTwice = Strings.stripColors(Strings.stripColors(name)).toLowerCase();
+        if(!strippedTwice.equals(lower) && !strippedTwice.equals(stripped)) out.get(strippedTwice);
+    }
+
     public void forceSave(){
         if(modified && loaded){
-            Core.settings.putJson("player-data", playerInfo);
+            //don't overwrite player data that failed to load
+            if(playerDataLoaded){
+                try{
+                    playerLog.save(playerInfo);
+
+                    //the old format has been migrated now
+                    if(Core.settings.has("player-data")){
+                        Core.settings.remove("player-data");
+                    }
+                }catch(IOException e){
+                    Log.err("Failed to save player data", e);
+                }
+            }
+
             Core.settings.putJson("ip-kicks", kickedIPs);
             Core.settings.putJson("ip-bans", String.class, bannedIPs);
             Core.settings.putJson("whitelist-ids", String.class, whitelist);
@@ -469,11 +555,24 @@ public class Administration{
     private void load(){
         loaded = true;
         //load default data
-        playerInfo = Core.settings.getJson("player-data", ObjectMap.class, ObjectMap::new);
+        playerLog = new PlayerInfoLog(Core.settings.getDataDirectory().child("player-data.bin"));
+        playerInfo = new ObjectMap<>();
+        try{
+            if(playerLog.exists()){
+                playerLog.load(playerInfo);
+            }else{
+                //older versions stored all player data in the settings; it gets written to the log on the next save
+                playerInfo = Core.settings.getJson("player-data", ObjectMap.class, ObjectMap::new);
+            }
+            playerDataLoaded = true;
+        }catch(IOException e){
+            Log.err("Failed to load player data", e);
+        }
         kickedIPs = Core.settings.getJson("ip-kicks", ObjectMap.class, ObjectMap::new);
         bannedIPs = Core.settings.getJson("ip-bans", Seq.class, Seq::new);
         whitelist = Core.settings.getJson("whitelist-ids", Seq.class, Seq::new);
         subnetBans = Core.settings.getJson("banned-subnets", Seq.class, Seq::new);
+        reindex();
     }
 
     /**
@@ -513,6 +612,14 @@ public class Administration{
         autosaveSpacing = new Config("autosaveSpacing", "Spacing between autosaves in seconds.", 60 * 5),
         debug = new Config("debug", "Enable debug logging.", false, () -> Log.level = debug() ? LogLevel.debug : LogLevel.info),
         snapshotInterval = new Config("snapshotInterval", "Client entity snapshot interval in ms.", 200),
+        interestRange = new Config("interestRange", "Range around a player's view in tiles in which units are synced every snapshot. Units further away are synced less often. -1 to disable.", -1),
+        snapshotThreads = new Config("snapshotThreads", "Amount of threads used to write entity snapshots. 1 writes them on the main thread.", 1),
+        snapshotKeyframeInterval = new Config("snapshotKeyframeInterval", "Entities with unchanged sync data are only resent every this many snapshots. 1 to send all entities every snapshot.", 1),
+        interestInterval = new Config("interestInterval", "Units outside of a player's interest range are synced once every this many snapshots.", 5),
+        pathfinderThreads = new Config("pathfinderThreads", "Amount of worker threads used to update flow fields. 1 uses a single pathfinding thread. Takes effect on next map load.", 1),
+        blockSyncRefreshInterval = new Config("blockSyncRefreshInterval", "Buildings with unchanged data are only resent in every this many block snapshots. 1 to send all buildings every block snapshot.", 1),
+        logicBudget = new Config("logicBudget", "Maximum amount of instructions all processors together may run in one tick, shared fairly between them. 0 to disable.", 0),
+        logicThreads = new Config("logicThreads", "Amount of threads used to run processors. Instructions that only change the processor running them run in parallel, the rest on the main thread afterwards. 1 runs everything on the main thread. Above 1, memory cell reads no longer see writes by other processors in the same tick, which changes how some multi-processor setups behave.", 1),
         autoPause = new Config("autoPause", "Whether the game should pause when nobody is online.", false),
         roundExtraTime = new Config("roundExtraTime", "Time before loading a new map after the gameover, in seconds.", 12),
         maxLogLength = new Config("maxLogLength", "The Maximum log file size, in bytes.", 1024 * 1024 * 5);
@@ -598,6 +705,8 @@ public class Administration{
         public transient int messageInfractions;
         public transient Ratekeeper rate = new Ratekeeper();
         public transient Interval messageTimer = new Interval();
+        /** Checksum of the data that was last written to the {@link PlayerInfoLog}. */
+        transient int savedHash;
 
         PlayerInfo(String id){
             this.id = id;
@@ -27,6 +27,14 @@ public abstract class NetConnection{
     public int snapshotsSent;
     /** Timestamp of last received snapshot. */
     public long lastReceivedClientTime;
+    /** IDs of units that were in this connection's area of interest during the last snapshot. */
+    public IntSet interestIds = new IntSet();
+    /** Maps entity IDs to the checksum of the sync data that was last sent for them. */
+    public IntIntMap syncHashes = new IntIntMap();
+    /** Maps entity IDs to the value of {@link #snapshotsSent} when they were last sent. */
+    public IntIntMap syncSentAt = new IntIntMap();
+    /** IDs of entities that must be sent in the next snapshot, as the last one they were in came after a gap. */
+    public IntSet syncResend = new IntSet();
     /** Build requests that have been recently rejected. This is cleared every snapshot. */
     public Seq<BuildPlan> rejectedRequests = new Seq<>();
     /** Handles chat spam rate limits. */
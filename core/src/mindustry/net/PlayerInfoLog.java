@@ -0,0 +1,189 @@
+package mindustry.net;
+
+import arc.files.*;
+import arc.struct.*;
+import arc.util.io.*;
+import mindustry.net.Administration.*;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * Append-only file of {@link PlayerInfo} records. Saving only appends the players whose data changed since they were last written;
+ * when loading, the last record of each player wins. Once the file holds too many outdated records, it is rewritten with only the current ones.
+ */
+public class PlayerInfoLog{
+    private static final int version = 1;
+    private static final int bufferSize = 8192;
+    /** records longer than this can only come from a corrupt length */
+    private static final int maxRecordSize = 1024 * 1024;
+
+    private final Fi file;
+    private final ReusableByteOutStream buffer = new ReusableByteOutStream();
+    private final DataOutputStream bufferStream = new DataOutputStream(buffer);
+    private final CRC32 crc = new CRC32();
+    /** amount of records in the file, including outdated ones */
+    private int records;
+    /** whether the file ends in a record that was cut off, which must be removed before anything is appended after it */
+    private boolean torn;
+
+    public PlayerInfoLog(Fi file){
+        this.file = file;
+    }
+
+    public boolean exists(){
+        return file.exists();
+    }
+
+    /**
+     * Reads all players from the file. Reading stops at a record that was cut off while writing or is otherwise corrupt;
+     * the next {@link #save(ObjectMap)} then rewrites the file without it.
+     */
+    public void load(ObjectMap<String, PlayerInfo> out) throws IOException{
+        records = 0;
+        torn = false;
+        if(!file.exists()) return;
+
+        long fileLength = file.length(), offset = 4;
+
+        try(DataInputStream stream = new DataInputStream(file.read(bufferSize))){
+            int fileVersion = stream.readInt();
+            if(fileVersion != version) throw new IOException("Unknown player data version: " + fileVersion);
+
+            byte[] bytes = new byte[256];
+            while(offset < fileLength){
+                PlayerInfo info;
+                int length;
+                try{
+                    length = stream.readInt();
+                    if(length < 0 || length > maxRecordSize || offset + 4 + length > fileLength) break;
+
+                    if(bytes.length < length) bytes = new byte[length];
+                    stream.readFully(bytes, 0, length);
+                    info = read(new DataInputStream(new ByteArrayInputStream(bytes, 0, length)));
+                }catch(EOFException | UTFDataFormatException e){
+                    break;
+                }
+
+                info.savedHash = hash(bytes, length);
+                out.put(info.id, info);
+                records++;
+                offset += 4 + length;
+            }
+        }
+
+        torn = offset != fileLength;
+    }
+
+    /** Appends every player whose data changed since it was last written, or rewrites the file if it holds too many outdated records. */
+    public void save(ObjectMap<String, PlayerInfo> infos) throws IOException{
+        if(!file.exists() || torn || records > infos.size * 2 + 1000){
+            compact(infos);
+            return;
+        }
+
+        try(DataOutputStream stream = new DataOutputStream(file.write(true, bufferSize))){
+            for(PlayerInfo info : infos.values()){
+                int hash = serialize(info);
+                if(hash == info.savedHash) continue;
+
+                stream.writeInt(buffer.size());
+                stream.write(buffer.getBytes(), 0, buffer.size());
+                info.savedHash = hash;
+                records++;
+            }
+        }
+    }
+
+    /** Rewrites the file with only the current record of each player. */
+    public void compact(ObjectMap<String, PlayerInfo> infos) throws IOException{
+        //write to a separate file first, so a crash can't lose existing data
+        Fi temp = file.sibling(file.name() + ".tmp");
+        int written = 0;
+
+        try(DataOutputStream stream = new DataOutputStream(temp.write(false, bufferSize))){
+            stream.writeInt(version);
+
+            for(PlayerInfo info : infos.values()){
+                info.savedHash = serialize(info);
+                stream.writeInt(buffer.size());
+                stream.write(buffer.getBytes(), 0, buffer.size());
+                written++;
+            }
+        }
+
+        temp.moveTo(file);
+        records = written;
+        torn = false;
+    }
+
+    /** Writes a player to the buffer. @return the checksum of the written data. */
+    private int serialize(PlayerInfo info) throws IOException{
+        buffer.reset();
+        DataOutputStream out = bufferStream;
+
+        writeString(out, info.id);
+        writeString(out, info.lastName);
+        writeString(out, info.lastIP);
+        writeString(out, info.adminUsid);
+        out.writeInt(info.timesKicked);
+        out.writeInt(info.timesJoined);
+        out.writeBoolean(info.banned);
+        out.writeBoolean(info.admin);
+        out.writeLong(info.lastKicked);
+
+        out.writeInt(info.ips.size);
+        for(String ip : info.ips){
+            writeString(out, ip);
+        }
+
+        out.writeInt(info.names.size);
+        for(String name : info.names){
+            writeString(out, name);
+        }
+
+        out.flush();
+        return hash(buffer.getBytes(), buffer.size());
+    }
+
+    private PlayerInfo read(DataInputStream in) throws IOException{
+        PlayerInfo info = new PlayerInfo();
+
+        info.id = readString(in);
+        info.lastName = readString(in);
+        info.lastIP = readString(in);
+        info.adminUsid = readString(in);
+        info.timesKicked = in.readInt();
+        info.timesJoined = in.readInt();
+        info.banned = in.readBoolean();
+        info.admin = in.readBoolean();
+        info.lastKicked = in.readLong();
+
+        int ips = in.readInt();
+        for(int i = 0; i < ips; i++){
+            info.ips.add(readString(in));
+        }
+
+        int names = in.readInt();
+        for(int i = 0; i < names; i++){
+            info.names.add(readString(in));
+        }
+
+        return info;
+    }
+
+    private int hash(byte[] bytes, int length){
+        crc.reset();
+        crc.update(bytes, 0, length);
+        return (int)crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException{
+        out.writeBoolean(value != null);
+        if(value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException{
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
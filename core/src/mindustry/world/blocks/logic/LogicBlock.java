@@ -271,6 +271,9 @@ public class LogicBlock extends Block{
         public boolean isVirus = false;
         //dynamic only for privileged processors
         public int ipt = instructionsPerTick;
+        /** Instructions run in the last tick, and in total since this was created. Counted by {@link LogicScheduler}. */
+        public int lastInstructions;
+        public long totalInstructions;
 
         /** Block of code to run after load. */
         public @Nullable Runnable loadBlock;
@@ -399,6 +402,7 @@ public class LogicBlock extends Block{
 
                     if(keep){
                         //store any older variables
+                        executor.syncVars();
                         for(Var var : executor.vars){
                             boolean unit = var.name.equals("@unit");
                             if(!var.constant || unit){
@@ -549,10 +553,7 @@ public class LogicBlock extends Block{
 
                 if(accumulator > maxInstructionScale * ipt) accumulator = maxInstructionScale * ipt;
 
-                for(int i = 0; i < (int)accumulator; i++){
-                    executor.runOnce();
-                    accumulator --;
-                }
+                logicScheduler.queue(this);
             }
         }
 
@@ -734,6 +735,7 @@ public class LogicBlock extends Block{
             write.b(compressed);
 
             //write only the non-constant variables
+            executor.syncVars();
             int count = Structs.count(executor.vars, v -> (!v.constant || v == executor.vars[LExecutor.varUnit]) && !(v.isobj && v.objval == null));
 
             write.i(count);
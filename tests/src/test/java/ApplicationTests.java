@@ -17,6 +17,7 @@ import mindustry.game.*;
 import mindustry.gen.*;
 import mindustry.io.*;
 import mindustry.io.SaveIO.*;
+import mindustry.logic.*;
 import mindustry.maps.*;
 import mindustry.mod.*;
 import mindustry.mod.Mods.*;
@@ -24,6 +25,7 @@ import mindustry.net.*;
 import mindustry.net.Packets.*;
 import mindustry.type.*;
 import mindustry.world.*;
+import mindustry.world.blocks.logic.LogicBlock.*;
 import mindustry.world.blocks.payloads.*;
 import mindustry.world.blocks.storage.*;
 import org.junit.jupiter.api.*;
@@ -613,6 +615,305 @@ public class ApplicationTests{
         assertNotEquals(0, itemsa[0]);
     }
 
+    @Test
+    void logicOptimizerSwapsConstants(){
+        String[] ops = {"add", "mul", "max", "min", "land", "and", "or", "xor", "lessThan", "lessThanEq", "greaterThan", "greaterThanEq", "sub", "div"};
+        String[] conditions = {"lessThan", "lessThanEq", "greaterThan", "greaterThanEq"};
+
+        //both sides of the constant, and the constant itself, where strict and non-strict comparisons differ
+        for(int x = 2; x <= 4; x++){
+            StringBuilder code = new StringBuilder("set x " + x + "\n");
+            for(int i = 0; i < ops.length; i++){
+                code.append("op ").append(ops[i]).append(" r").append(i).append(" 3 x\n");
+            }
+            int line = ops.length + 1;
+            for(int i = 0; i < conditions.length; i++, line += 2){
+                code.append("set j").append(i).append(" 0\n");
+                code.append("jump ").append(line + 3).append(" ").append(conditions[i]).append(" 3 x\n");
+                line++;
+                code.append("set j").append(i).append(" 1\n");
+            }
+            code.append("stop");
+
+            LExecutor[] execs = loadOptimized(code.toString());
+            assertTrue(execs[1].instructions[1] instanceof LOptimizer.AddKI);
+            assertTrue(execs[1].instructions[9] instanceof LOptimizer.GreaterKI);
+            assertTrue(execs[1].instructions[ops.length + 2] instanceof LOptimizer.JumpGreaterKI);
+            assertSameResults(execs, 100);
+        }
+    }
+
+    @Test
+    void logicOptimizerFoldsConstants(){
+        LExecutor[] execs = loadOptimized("""
+        op add a 2 3
+        op div b 1 0
+        op mod c 1 0
+        op lessThan d 2 3
+        op idiv e 7 2
+        jump 7 lessThan 2 3
+        set f 1
+        jump 9 greaterThan 2 3
+        set g 1
+        stop
+        """);
+
+        for(int i = 0; i < 5; i++){
+            assertTrue(execs[1].instructions[i] instanceof LOptimizer.SetNumI);
+        }
+        assertTrue(execs[1].instructions[5] instanceof LOptimizer.JumpAlwaysI);
+        assertTrue(execs[1].instructions[7] instanceof LExecutor.NoopI);
+        assertSameResults(execs, 100);
+
+        //NaN and infinity are stored as null, like any other operation that results in them
+        for(String name : new String[]{"b", "c"}){
+            LExecutor.Var var = Structs.find(execs[1].vars, v -> v.name.equals(name));
+            assertTrue(var.isobj);
+            assertNull(var.objval);
+        }
+        assertEquals(5, Structs.find(execs[1].vars, v -> v.name.equals("a")).numval);
+    }
+
+    @Test
+    void logicOptimizerJumpIntoFused(){
+        LExecutor[] execs = loadOptimized("""
+        set i 10
+        jump 3 always
+        op add i i 1
+        jump 2 lessThan i 20
+        set n 0
+        op add n n 2
+        jump 5 lessThan n 9
+        stop
+        """);
+
+        //the fused jump is skipped by jumping straight to the jump it replaced
+        assertTrue(execs[1].instructions[2] instanceof LOptimizer.IncrementJumpLessKI);
+        assertTrue(execs[1].instructions[3] instanceof LOptimizer.JumpLessKI);
+        assertTrue(execs[1].instructions[5] instanceof LOptimizer.IncrementJumpLessKI);
+        assertSameResults(execs, 100);
+        assertEquals(20, Structs.find(execs[1].vars, v -> v.name.equals("i")).numval);
+        assertEquals(10, Structs.find(execs[1].vars, v -> v.name.equals("n")).numval);
+    }
+
+    @Test
+    void logicOptimizerCounterWrites(){
+        LExecutor[] execs = loadOptimized("""
+        set i 0
+        op add i i 1
+        jump 1 lessThan i @counter
+        op add @counter @counter 1
+        set skipped 1
+        set k 0
+        op add k k 1
+        jump 9 lessThan k 4
+        jump 10 always
+        set @counter 6
+        stop
+        """);
+
+        //comparing to @counter must see it after the increment, so it is not fused
+        assertFalse(execs[1].instructions[1] instanceof LOptimizer.IncrementJumpLessI);
+        assertTrue(execs[1].instructions[6] instanceof LOptimizer.IncrementJumpLessKI);
+        assertSameResults(execs, 100);
+        assertEquals(3, Structs.find(execs[1].vars, v -> v.name.equals("i")).numval);
+        assertEquals(4, Structs.find(execs[1].vars, v -> v.name.equals("k")).numval);
+    }
+
+    @Test
+    void logicOptimizerSetRate(){
+        world.loadMap(testMap);
+        state.set(State.playing);
+
+        LExecutor[] execs = new LExecutor[2];
+        try{
+            for(int pass = 0; pass < 2; pass++){
+                LOptimizer.enabled = pass == 1;
+                world.tile(pass * 2, 0).setBlock(Blocks.worldProcessor, Team.sharded);
+                LogicBuild build = (LogicBuild)world.tile(pass * 2, 0).build;
+                build.updateCode("""
+                setrate 50
+                op mul y @ipt 2
+                jump 4 lessThan @ipt 10
+                set big 1
+                stop
+                """);
+                execs[pass] = build.executor;
+            }
+        }finally{
+            LOptimizer.enabled = true;
+        }
+
+        //@ipt is constant to the assembler, but changed by setrate, so it can't be folded
+        assertSameResults(execs, 100);
+        assertEquals(100, Structs.find(execs[1].vars, v -> v.name.equals("y")).numval);
+        assertEquals(1, Structs.find(execs[1].vars, v -> v.name.equals("big")).numval);
+    }
+
+    /** @return the same program loaded without and with {@link LOptimizer}. */
+    LExecutor[] loadOptimized(String code){
+        LExecutor[] execs = new LExecutor[2];
+        try{
+            for(int pass = 0; pass < 2; pass++){
+                LOptimizer.enabled = pass == 1;
+                execs[pass] = new LExecutor();
+                execs[pass].load(LAssembler.assemble(code, false));
+            }
+        }finally{
+            LOptimizer.enabled = true;
+        }
+        return execs;
+    }
+
+    /** Runs both versions of a program, which should end with a stop, and checks that all of their variables are the same. */
+    void assertSameResults(LExecutor[] execs, int instructions){
+        for(LExecutor exec : execs){
+            exec.run(instructions);
+            exec.syncVars();
+        }
+
+        LExecutor.Var[] generic = execs[0].vars, optimized = execs[1].vars;
+        assertEquals(generic.length, optimized.length);
+        for(int i = 0; i < generic.length; i++){
+            assertEquals(generic[i].name, optimized[i].name);
+            assertEquals(generic[i].isobj, optimized[i].isobj, generic[i].name);
+            if(generic[i].isobj){
+                assertEquals(generic[i].objval, optimized[i].objval, generic[i].name);
+            }else{
+                assertEquals(generic[i].numval, optimized[i].numval, generic[i].name);
+            }
+        }
+    }
+
+    @Test
+    void logicBudget(){
+        world.loadMap(testMap);
+        state.set(State.playing);
+
+        int[] ipts = {1, 10, 10};
+        Seq<LogicBuild> builds = new Seq<>();
+        for(int i = 0; i < ipts.length; i++){
+            world.tile(i * 2, 0).setBlock(Blocks.worldProcessor, Team.sharded);
+            LogicBuild build = (LogicBuild)world.tile(i * 2, 0).build;
+            build.updateCode("op add x x 1");
+            builds.add(build);
+        }
+
+        //accumulate the same way processors do when they update
+        Runnable tick = () -> {
+            for(int i = 0; i < ipts.length; i++){
+                builds.get(i).accumulator += ipts[i];
+                logicScheduler.queue(builds.get(i));
+            }
+            logicScheduler.update();
+        };
+
+        Administration.Config.logicBudget.set(12);
+        try{
+            tick.run();
+        }finally{
+            Administration.Config.logicBudget.set(0);
+        }
+
+        //the small processor runs fully, the others split what is left
+        assertEquals(1, builds.get(0).lastInstructions);
+        assertEquals(5, builds.get(1).lastInstructions);
+        assertEquals(6, builds.get(2).lastInstructions);
+        assertEquals(12, logicScheduler.lastInstructions);
+        assertEquals(2, logicScheduler.lastThrottled);
+
+        tick.run();
+
+        //without a budget, throttled processors catch up on what they accumulated
+        assertEquals(0, logicScheduler.lastThrottled);
+        assertEquals(15, builds.get(1).lastInstructions);
+        assertEquals(42, builds.sumf(b -> b.totalInstructions), 0.01f);
+    }
+
+    @Test
+    void logicParallel(){
+        LExecutor exec = new LExecutor();
+        exec.load(LAssembler.assemble("set a 1\nop add b a 2\nwrite b cell1 0\nop add c b 1", false));
+
+        //stops before the write, which is left for the main thread
+        assertEquals(2, exec.runPure(100));
+        assertEquals(2, exec.num(LExecutor.varCounter));
+        assertEquals(2, exec.run(2));
+        exec.syncVars();
+        assertEquals(4, Structs.find(exec.vars, v -> v.name.equals("c")).numval);
+
+        world.loadMap(testMap);
+        state.set(State.playing);
+
+        Seq<LogicBuild> builds = new Seq<>();
+        for(int i = 0; i < 6; i++){
+            world.tile(i * 2, 0).setBlock(Blocks.worldProcessor, Team.sharded);
+            LogicBuild build = (LogicBuild)world.tile(i * 2, 0).build;
+            build.updateCode("op add x x 1\nop mul y x " + i);
+            builds.add(build);
+        }
+
+        Administration.Config.logicThreads.set(3);
+        try{
+            for(int tick = 0; tick < 3; tick++){
+                for(LogicBuild build : builds){
+                    build.accumulator += 10;
+                    logicScheduler.queue(build);
+                }
+                logicScheduler.update();
+                assertEquals(60, logicScheduler.lastParallelInstructions);
+            }
+        }finally{
+            Administration.Config.logicThreads.set(1);
+        }
+
+        for(int i = 0; i < builds.size; i++){
+            LExecutor executor = builds.get(i).executor;
+            executor.syncVars();
+            assertEquals(15, Structs.find(executor.vars, v -> v.name.equals("x")).numval);
+            assertEquals(15 * i, Structs.find(executor.vars, v -> v.name.equals("y")).numval);
+        }
+    }
+
+    @Test
+    void logicParallelSharedCell(){
+        world.loadMap(testMap);
+        state.set(State.playing);
+
+        //the writer is queued before the reader
+        String[] code = {"op add x x 1\nwrite x cell 0", "read v cell 0"};
+
+        for(int threads : new int[]{1, 2, 4}){
+            world.tile(4, 0).setBlock(Blocks.memoryCell, Team.sharded);
+            Building cell = world.tile(4, 0).build;
+
+            Seq<LogicBuild> builds = new Seq<>();
+            for(int i = 0; i < code.length; i++){
+                world.tile(i * 2, 0).setBlock(Blocks.worldProcessor, Team.sharded);
+                LogicBuild build = (LogicBuild)world.tile(i * 2, 0).build;
+                build.updateCode(code[i], false, asm -> asm.putConst("cell", cell));
+                builds.add(build);
+            }
+
+            Administration.Config.logicThreads.set(threads);
+            try{
+                for(int tick = 1; tick <= 3; tick++){
+                    builds.get(0).accumulator += 2;
+                    builds.get(1).accumulator += 1;
+                    builds.each(logicScheduler::queue);
+                    logicScheduler.update();
+
+                    //on the main thread the reader sees this tick's write, with threads reads run before any write and see the last tick's
+                    LExecutor reader = builds.get(1).executor;
+                    reader.syncVars();
+                    assertEquals(threads == 1 ? tick : tick - 1, Structs.find(reader.vars, v -> v.name.equals("v")).numval, "threads: " + threads);
+                }
+            }finally{
+                Administration.Config.logicThreads.set(1);
+            }
+        }
+    }
+
     @Test
     void load77Save(){
         resetWorld();
@@ -4,7 +4,11 @@ import mindustry.client.communication.Base32768Coder;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Random;
 
@@ -23,6 +27,56 @@ public class Base32768CoderTests {
 //        Assertions.fail();
     }
 
+    @Test
+    void testMatchesBigInteger() throws IOException {
+        Random random = new Random(0);
+        for (int size = 0; size < 200; size++) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            if (size % 3 == 0 && size > 1) bytes[0] = bytes[1] = 0; // Leading zeros are what the extra one bit is for
+
+            String encoded = Base32768Coder.INSTANCE.encode(bytes);
+            Assertions.assertEquals(bigIntegerEncode(bytes), encoded);
+            Assertions.assertArrayEquals(bytes, Base32768Coder.INSTANCE.decode(encoded));
+        }
+    }
+
+    @Test
+    void testBuffers() throws IOException {
+        byte[] bytes = new byte[500];
+        new Random().nextBytes(bytes);
+
+        CharBuffer chars = CharBuffer.allocate(Base32768Coder.INSTANCE.encodedLengthOf(bytes.length) + 12);
+        chars.put("prefix");
+        Base32768Coder.INSTANCE.encode(ByteBuffer.wrap(bytes, 100, 300), chars);
+        chars.flip();
+        chars.position(6);
+
+        ByteBuffer decoded = ByteBuffer.allocate(310);
+        decoded.position(10);
+        Base32768Coder.INSTANCE.decode(chars, decoded);
+        Assertions.assertEquals(310, decoded.position());
+        Assertions.assertArrayEquals(Arrays.copyOfRange(bytes, 100, 400), Arrays.copyOfRange(decoded.array(), 10, 310));
+
+        Assertions.assertThrows(IOException.class, () -> Base32768Coder.INSTANCE.decode(""));
+    }
+
+    /** The original encoder, which the wire format must stay compatible with */
+    private static String bigIntegerEncode(byte[] input) {
+        byte[] withOne = new byte[input.length + 1];
+        withOne[0] = 1;
+        System.arraycopy(input, 0, withOne, 1, input.length);
+
+        BigInteger value = new BigInteger(withOne);
+        BigInteger mask = BigInteger.ONE.shiftLeft(15).subtract(BigInteger.ONE);
+        StringBuilder out = new StringBuilder();
+        while (!value.equals(BigInteger.ZERO)) {
+            out.appendCodePoint(value.and(mask).intValue() + 128);
+            value = value.shiftRight(15);
+        }
+        return out.appendCodePoint(input.length + 128).toString();
+    }
+
     @Test
     void testKnown() throws IOException {
         byte[] input = Base64.getDecoder().decode("muy6VDsRHpGQBIH5GeyzOWelipFDompw2ocrwiV0kByRXJU5MAKU5kZuE8Ro5JQJXE2hTzaaeZHBQRe0keOIehjBY9T4HGcqgaomidiZlNpyXv7RTsUk+X1AQedlF96zBpoxTkc9BmUfgAy28jwsNTcc7TxxcVKvONaHga4KPb5CMCA+V9Q+xzT3YDBkeffDkZA59UrWXJKO9dmU3EF/hU0k529klQANhctVNoE2syo2gpuByQkUqRBMtzFEEwVStkxoazAyOi8Orwkxv+cjSTK7GSmhBFrCwSyprpx/4Aej5HBugCfhKH1clSA3bUUJZZ8ft8m2ihWcSv5cgZpSsk4KAtOcmXZDtHm41CiEZqICEz9r/CsiCwtDU+L0gl39ho26DdNAm9dLSlDYdMcRDRKx2B85wFIRcfixFdnrbPUqDjyJ9WWErgsyAtEhQOY971EkIENkfWSivFGOdzRXo7JqpaTX7mM5dAfEF9mFwZ/J4VP7IfK9/2ZLQgn7EDnhpn58BNN6FaQ4Nix6am/dLySHyt+fkf19+pSLavTC7RIkMaE2RY+iYL6xs2dHU8OQWBmirswsPZCOWIxl2OElQ17TI2MP1G8poLdTSQbYNmMQ5/gEevQJ0seOocd+s16EGs8YZRVgJaAtYill4FR6NszMwe3C9E0xP6Rg96IUPFswpcMvwhWkn+cKCXs1wo5rX5sQzH257tIAhO55ZfEGZhA8s9WCD5oPBn0rOgU6UXlxzhxTywLsWQ1yPTfKTVJrOX6p4EYciIj0917LdwiYGf6SdA6QifC62rU7xTreCHjDSGjqA0xKX88BZu5WTLEJ1B0aEvLThlLOFD05ATBlu9apvY8yjHW/6wlulI4n5TIZUoXn3RlkyMgcKd7PYZZdMW9p6FJUHFRN28d0tH/dQcS3w7F/OXtmlz44tTdsE6SkBLanYmLMnjHfS9R8ThXuH8Iw0My7ye6BuEnWM/reVJai3upnh9eEhC8Um0CCsXRMZoD8++gQp71QHJye0T1wf8ycg+yDOctqeXbfgG5lFLwBFv4G7exF+d/zB7jLoQZvH3c+ffSsMbmvZ0BczESquZDhkS4M/KjUq3Xvpl3LJoZwqz0rTsGdfY2zxBxLpendND0TducHwGWRxVbwsGOeejvOAgvrA09y6LF3qbBxC5kLhccj0WLlsv8t0AJMkY0UYXkqtyaOZY3TY6cRipA7sFRja0Ix6+86wtzZq0pJnLI1pC7LioocdJEiewZsQH256ArGIvpmp2ybfvmgJl/2x99+vWkLg/oBV0qVYMOLOaD/2ZPWLCnoLq/DxPoPlRFXButTtlOK4Q==");
@@ -1,9 +1,13 @@
 package client
 
+import arc.math.geom.*
+import mindustry.client.utils.*
 import mindustry.client.utils.compress
 import mindustry.client.utils.inflate
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
+import java.io.*
+import java.util.zip.*
 import kotlin.random.*
 
 class CompressionTests {
@@ -13,4 +17,35 @@ class CompressionTests {
         val input = Random.Default.nextBytes(1024)
         Assertions.assertArrayEquals(input, input.compress().inflate())
     }
+
+    @Test
+    fun testDictionary() {
+        val input = Random.Default.nextBytes(1024)
+        Assertions.assertArrayEquals(input, Compression.compress(input, Compression.DICTIONARY).inflate())
+
+        // A small build queue should shrink compared to plain zlib
+        val bytes = ByteArrayOutputStream()
+        val out = DataOutputStream(bytes)
+        out.writeShort(8)
+        for (i in 0 until 8) {
+            out.writeByte(0)
+            out.writeInt(Point2.pack(40 + i, 25))
+            out.writeShort(3)
+            out.writeByte(1)
+            out.writeByte(1)
+            out.writeByte(0)
+        }
+        val plans = bytes.toByteArray()
+        val compressed = Compression.compress(plans, Compression.DICTIONARY)
+        Assertions.assertArrayEquals(plans, compressed.inflate())
+        Assertions.assertTrue(compressed.size < plans.compress().size)
+    }
+
+    @Test
+    fun testLegacyStreams() {
+        val input = Random.Default.nextBytes(1024)
+        val legacy = DeflaterInputStream(input.inputStream()).use { it.readBytes() }
+        Assertions.assertArrayEquals(input, legacy.inflate())
+        Assertions.assertArrayEquals(input, InflaterInputStream(input.compress().inputStream()).use { it.readBytes() })
+    }
 }
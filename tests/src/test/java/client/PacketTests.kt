@@ -48,4 +48,20 @@ class PacketTests {
         Assertions.assertArrayEquals(transmission2.content, output2)
         Assertions.assertArrayEquals(transmission3.content, output3)
     }
+
+    @Test
+    fun testSinglePacket() {
+        val pool = mutableListOf<DummyCommunicationSystem>()
+        val client1 = Packets.CommunicationClient(DummyCommunicationSystem(pool))
+        val client2 = Packets.CommunicationClient(DummyCommunicationSystem(pool))
+
+        val transmission = DummyTransmission(byteArrayOf(1, 2, 3))
+        var output: ByteArray? = null
+        client2.addListener { t, _ -> if (t is DummyTransmission && t.id == transmission.id) output = t.content }
+
+        client1.send(transmission)
+        for (i in 0..5) client1.update()
+
+        Assertions.assertArrayEquals(transmission.content, output)
+    }
 }
@@ -56,4 +56,38 @@ class SyncerTests {
 
         println(aSync.list)
     }
+
+    @Test
+    fun testChunkRepair() {
+        val pool = mutableListOf<DummyCommunicationSystem>()
+        val a = Packets.CommunicationClient(DummyCommunicationSystem(pool))
+        val b = Packets.CommunicationClient(DummyCommunicationSystem(pool))
+
+        val aSync = Syncer({ i, d -> d.writeInt(i) }, DataInputStream::readInt, a, 13L, Syncer.Mode.BOTH)
+        val bSync = Syncer({ i, d -> d.writeInt(i) }, DataInputStream::readInt, b, 13L, Syncer.Mode.BOTH)
+
+        fun pump() = repeat(300) {
+            aSync.update()
+            bSync.update()
+
+            a.update()
+            b.update()
+        }
+
+        aSync.added((0 until 200).map { it to it })
+        pump()
+        Assertions.assertEquals(aSync.list, bSync.list)
+
+        aSync.removed(listOf(150, 100, 50, 0)) // Batched into one pass
+        aSync.removed(listOf(0))
+        aSync.added(listOf(-5 to 0))
+        pump()
+        Assertions.assertEquals(aSync.list, bSync.list)
+
+        Reflect.get<MutableList<Int>>(bSync, "internalList")[120] = -1
+        aSync.added(listOf(1000 to aSync.list.size))
+        pump()
+        Assertions.assertEquals(aSync.list, bSync.list)
+        Assertions.assertFalse(bSync.isDesynced)
+    }
 }